@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grahamedgecombe.jterminal.vt100.Vt100TerminalModel;
+import com.grahamedgecombe.jterminal.vt100.Workload;
+
+/**
+ * Measures how quickly a {@link JTerminal} paints frames into an off-screen
+ * image, without a display, after the whole screen has changed and after a
+ * single line has scrolled it.
+ * @author Graham Edgecombe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+
+	/**
+	 * The workload on the screen when it is painted.
+	 */
+	@Param({ "PLAIN", "SGR" })
+	private Workload workload;
+
+	/**
+	 * The number of lines in the buffer.
+	 */
+	@Param({ "24", "1000" })
+	private int bufferSize;
+
+	/**
+	 * A flag indicating if glyphs are drawn from the atlas.
+	 */
+	@Param({ "false", "true" })
+	private boolean glyphAtlas;
+
+	/**
+	 * The model.
+	 */
+	private TerminalModel model;
+
+	/**
+	 * The text which redraws the whole screen.
+	 */
+	private String screen;
+
+	/**
+	 * The lines printed one at a time at the bottom of the buffer.
+	 */
+	private String[] lines;
+
+	/**
+	 * The index of the next line to print.
+	 */
+	private int line = 0;
+
+	/**
+	 * The terminal.
+	 */
+	private JTerminal terminal;
+
+	/**
+	 * The image the terminal is painted into.
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The graphics context of the image.
+	 */
+	private Graphics2D graphics;
+
+	/**
+	 * Creates a terminal showing the workload, with the cursor at the bottom
+	 * of the buffer, and lays it out.
+	 */
+	@Setup
+	public void setUp() {
+		lines = workload.generate(Workload.COLUMNS * bufferSize * 2).split("\r\n");
+
+		StringBuilder buf = new StringBuilder("\u001B[H");
+		for (int i = 0; i < Workload.ROWS; i++) {
+			if (i != 0) {
+				buf.append("\r\n");
+			}
+			buf.append(lines[i]);
+		}
+		screen = buf.toString();
+
+		model = new Vt100TerminalModel(Workload.COLUMNS, Workload.ROWS, bufferSize);
+		for (String text : lines) {
+			model.print(text);
+			model.print("\r\n");
+		}
+
+		terminal = new JTerminal(model);
+		terminal.setGlyphAtlasEnabled(glyphAtlas);
+		terminal.setSize(terminal.getPreferredSize());
+		terminal.doLayout();
+
+		image = new BufferedImage(terminal.getWidth(), terminal.getHeight(), BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+		terminal.paint(graphics);
+	}
+
+	/**
+	 * Disposes of the graphics context.
+	 */
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	/**
+	 * Redraws every row of the screen and paints the terminal.
+	 * @return The image, so the painting is not eliminated.
+	 */
+	@Benchmark
+	public BufferedImage redraw() {
+		model.print(screen);
+		terminal.paint(graphics);
+		return image;
+	}
+
+	/**
+	 * Prints a line at the bottom of the buffer, which scrolls it, and
+	 * paints the terminal, as when following a log file.
+	 * @return The image, so the painting is not eliminated.
+	 */
+	@Benchmark
+	public BufferedImage tail() {
+		model.print(lines[line]);
+		model.print("\r\n");
+		if (++line == lines.length) {
+			line = 0;
+		}
+		terminal.paint(graphics);
+		return image;
+	}
+
+}
@@ -22,49 +22,32 @@
 
 package com.grahamedgecombe.jterminal.vt100;
 
-import java.awt.Color;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
 
 /**
- * Contains colors used by the SGR ANSI escape sequence.
+ * Counts the bytes processed by a benchmark, so that JMH reports the byte
+ * rate alongside the operation rate.
  * @author Graham Edgecombe
  */
-final class SgrColor {
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
 
 	/**
-	 * An array of normal intensity colors.
+	 * The number of bytes processed in the current iteration.
 	 */
-	public static final Color[] COLOR_NORMAL = new Color[] {
-		new Color(0, 0, 0),
-		new Color(128, 0, 0),
-		new Color(0, 128, 0),
-		new Color(128, 128, 0),
-		new Color(0, 0, 128),
-		new Color(128, 0, 128),
-		new Color(0, 128, 128),
-		new Color(192, 192, 192)
-	};
+	public long bytes;
 
 	/**
-	 * An array of bright intensity colors.
+	 * Resets the counter at the start of each iteration.
 	 */
-	public static final Color[] COLOR_BRIGHT = new Color[] {
-		new Color(128, 128, 128),
-		new Color(255, 0, 0),
-		new Color(0, 255, 0),
-		new Color(255, 255, 0),
-		new Color(0, 0, 255),
-		new Color(0, 0, 255),
-		new Color(255, 0, 255),
-		new Color(0, 255, 255),
-		new Color(255, 255, 255)
-	};
-
-	/**
-	 * Default private constructor to prevent instantiation.
-	 */
-	private SgrColor() {
-
+	@Setup(Level.Iteration)
+	public void reset() {
+		bytes = 0;
 	}
 
 }
-
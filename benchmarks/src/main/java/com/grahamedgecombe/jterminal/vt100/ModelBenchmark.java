@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of a {@link Vt100TerminalModel} printing output
+ * into a deep scrollback buffer, including the cost of parsing it.
+ * @author Graham Edgecombe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+	/**
+	 * The workload.
+	 */
+	@Param({ "PLAIN", "SGR", "CURSOR" })
+	private Workload workload;
+
+	/**
+	 * The number of lines in the buffer.
+	 */
+	@Param({ "1000", "10000" })
+	private int bufferSize;
+
+	/**
+	 * The number of characters printed per operation.
+	 */
+	@Param({ "65536" })
+	private int length;
+
+	/**
+	 * The input as a string.
+	 */
+	private String text;
+
+	/**
+	 * The input as UTF-8 encoded bytes.
+	 */
+	private ByteBuffer bytes;
+
+	/**
+	 * The model.
+	 */
+	private Vt100TerminalModel model;
+
+	/**
+	 * Generates the input and creates a model with a full buffer, so that
+	 * every new line scrolls.
+	 */
+	@Setup
+	public void setUp() {
+		text = workload.generate(length);
+		bytes = ByteBuffer.wrap(text.getBytes(Charset.forName("UTF-8")));
+		model = new Vt100TerminalModel(Workload.COLUMNS, Workload.ROWS, bufferSize);
+		for (int i = 0; i < bufferSize; i++) {
+			model.print("\r\n");
+		}
+	}
+
+	/**
+	 * Prints the input as a string.
+	 * @param counter The byte counter.
+	 */
+	@Benchmark
+	public void print(ByteCounter counter) {
+		model.print(text);
+		counter.bytes += text.length();
+	}
+
+	/**
+	 * Writes the input as bytes.
+	 * @param counter The byte counter.
+	 */
+	@Benchmark
+	public void write(ByteCounter counter) {
+		bytes.rewind();
+		model.write(bytes);
+		counter.bytes += bytes.limit();
+	}
+
+}
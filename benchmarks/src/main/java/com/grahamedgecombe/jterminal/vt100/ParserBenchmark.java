@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of the control sequence parsers on their own, with
+ * a listener that only consumes what it is given.
+ * @author Graham Edgecombe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	/**
+	 * A listener which passes everything it is given to a {@link Blackhole}.
+	 * @author Graham Edgecombe
+	 */
+	private static final class ConsumingListener implements AnsiControlSequenceListener {
+
+		/**
+		 * The black hole.
+		 */
+		private final Blackhole blackhole;
+
+		/**
+		 * Creates the listener.
+		 * @param blackhole The black hole.
+		 */
+		private ConsumingListener(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void parsedControlSequence(AnsiControlSequence seq) {
+			blackhole.consume(seq.getCommand());
+			blackhole.consume(seq.getParameter(0, 0));
+		}
+
+		@Override
+		public void parsedEscapeSequence(AnsiControlSequence seq) {
+			blackhole.consume(seq.getCommand());
+		}
+
+		@Override
+		public void parsedText(char[] buf, int off, int len) {
+			blackhole.consume(buf[off]);
+			blackhole.consume(len);
+		}
+
+	}
+
+	/**
+	 * The workload.
+	 */
+	@Param({ "PLAIN", "SGR", "CURSOR" })
+	private Workload workload;
+
+	/**
+	 * The parser engine.
+	 */
+	@Param({ "ANSI", "VT500" })
+	private ParserEngine engine;
+
+	/**
+	 * The number of characters parsed per operation.
+	 */
+	@Param({ "65536" })
+	private int length;
+
+	/**
+	 * The input.
+	 */
+	private char[] input;
+
+	/**
+	 * The parser.
+	 */
+	private ControlSequenceParser parser;
+
+	/**
+	 * Generates the input and creates the parser.
+	 * @param blackhole The black hole.
+	 */
+	@Setup
+	public void setUp(Blackhole blackhole) {
+		input = workload.generate(length).toCharArray();
+		parser = engine.createParser(new ConsumingListener(blackhole));
+	}
+
+	/**
+	 * Parses the input in place.
+	 * @param counter The byte counter.
+	 */
+	@Benchmark
+	public void parse(ByteCounter counter) {
+		parser.parse(input, 0, input.length);
+		counter.bytes += input.length;
+	}
+
+}
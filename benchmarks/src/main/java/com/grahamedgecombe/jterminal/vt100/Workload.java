@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.util.Random;
+
+/**
+ * The kinds of terminal output the benchmarks are run against. Each workload
+ * generates deterministic, ASCII-only output, so the number of characters is
+ * also the number of bytes a real program would have written.
+ * @author Graham Edgecombe
+ */
+public enum Workload {
+
+	/**
+	 * Plain lines of text, such as the output of {@code cat} or a build log.
+	 */
+	PLAIN {
+		@Override
+		void append(StringBuilder buf, Random random) {
+			appendWords(buf, random, COLUMNS);
+			buf.append("\r\n");
+		}
+	},
+
+	/**
+	 * Colored listings with an SGR sequence around every word, such as the
+	 * output of {@code ls --color}.
+	 */
+	SGR {
+		@Override
+		void append(StringBuilder buf, Random random) {
+			for (int i = 0; i < 6; i++) {
+				buf.append("\u001B[").append(i % 2 == 0 ? "01;" : "00;").append(30 + random.nextInt(8)).append('m');
+				appendWords(buf, random, 10);
+				buf.append("\u001B[0m  ");
+			}
+			buf.append("\r\n");
+		}
+	},
+
+	/**
+	 * Full-screen updates which address every row with the cursor, erase it
+	 * and redraw it in reverse video, such as the output of {@code htop} or
+	 * {@code vim}.
+	 */
+	CURSOR {
+		@Override
+		void append(StringBuilder buf, Random random) {
+			buf.append("\u001B[H");
+			for (int row = 1; row <= ROWS; row++) {
+				buf.append("\u001B[").append(row).append(";1H\u001B[K");
+				buf.append("\u001B[7m").append(random.nextInt(100000)).append("\u001B[27m ");
+				buf.append("\u001B[").append(40 + random.nextInt(8)).append(";").append(30 + random.nextInt(8)).append('m');
+				appendWords(buf, random, COLUMNS - 20);
+				buf.append("\u001B[m");
+			}
+		}
+	};
+
+	/**
+	 * The number of columns the workloads are laid out for.
+	 */
+	public static final int COLUMNS = 80;
+
+	/**
+	 * The number of rows the workloads are laid out for.
+	 */
+	public static final int ROWS = 24;
+
+	/**
+	 * The words which text is built from.
+	 */
+	private static final String[] WORDS = {
+		"lorem", "ipsum", "dolor", "sit", "amet", "terminal", "escape",
+		"sequence", "cursor", "row", "column", "buffer", "a", "of", "the"
+	};
+
+	/**
+	 * Appends random words to a buffer.
+	 * @param buf The buffer.
+	 * @param random The random number generator.
+	 * @param length The maximum number of characters to append.
+	 */
+	private static void appendWords(StringBuilder buf, Random random, int length) {
+		int end = buf.length() + length;
+		for (;;) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			if (buf.length() + word.length() + 1 > end) {
+				break;
+			}
+			buf.append(word).append(' ');
+		}
+	}
+
+	/**
+	 * Generates this workload.
+	 * @param length The minimum number of characters to generate.
+	 * @return The generated output.
+	 */
+	public String generate(int length) {
+		Random random = new Random(length);
+		StringBuilder buf = new StringBuilder(length + 4096);
+		while (buf.length() < length) {
+			append(buf, random);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Appends one unit of this workload (a line or a screen) to a buffer.
+	 * @param buf The buffer.
+	 * @param random The random number generator.
+	 */
+	abstract void append(StringBuilder buf, Random random);
+
+}
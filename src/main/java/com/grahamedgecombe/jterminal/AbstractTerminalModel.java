@@ -22,18 +22,141 @@
 
 package com.grahamedgecombe.jterminal;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * A {@link TerminalModel} which implements some common behaviour.
  * @author Graham Edgecombe
  */
 public abstract class AbstractTerminalModel implements TerminalModel {
 
+	/**
+	 * The listeners.
+	 */
+	private final List<TerminalModelListener> listeners = new CopyOnWriteArrayList<TerminalModelListener>();
+
+	@Override
+	public void addListener(TerminalModelListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("listener");
+		}
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(TerminalModelListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * The generation reported by the default implementations of the damage
+	 * methods, which is increased every time the listeners are notified.
+	 */
+	private volatile long generation = 0;
+
+	/**
+	 * Notifies the listeners that the model has changed.
+	 */
+	protected void fireModelChanged() {
+		generation++;
+		for (TerminalModelListener listener : listeners) {
+			listener.modelChanged(this);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} The default implementation increases every time the
+	 * listeners are notified.
+	 */
+	@Override
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * {@inheritDoc} The default implementation always returns zero, so
+	 * scrolling is reported as a change to every row.
+	 */
+	@Override
+	public long getScrollCount() {
+		return 0;
+	}
+
+	/**
+	 * {@inheritDoc} The default implementation does not record changes to
+	 * individual rows, so it reports every row as changed whenever the model
+	 * changes.
+	 */
+	@Override
+	public long getRowGeneration(int row) {
+		if (row < 0 || row >= getBufferSize()) {
+			throw new IndexOutOfBoundsException();
+		}
+		return generation;
+	}
+
 	@Override
 	public void clear() {
-		int rows = getRows(), columns = getColumns();
-		for (int column = 0; column < columns; column++) {
-			for (int row = 0; row < rows; row++) {
-				setCell(column, row, null);
+		clearRegion(0, 0, getColumns(), getRows());
+	}
+
+	/**
+	 * Checks that a rectangular region is within the buffer.
+	 * @param column The first column of the region.
+	 * @param row The first row of the region.
+	 * @param width The number of columns in the region.
+	 * @param height The number of rows in the region.
+	 * @throws IllegalArgumentException if the width or height is negative.
+	 * @throws IndexOutOfBoundsException if the region is not within the
+	 * buffer.
+	 */
+	protected void checkRegion(int column, int row, int width, int height) {
+		if (width < 0 || height < 0) {
+			throw new IllegalArgumentException("width and height must not be negative");
+		}
+		if (column < 0 || row < 0 || column > getColumns() - width || row > getBufferSize() - height) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	/**
+	 * {@inheritDoc} The default implementation sets each cell in turn with
+	 * {@link #setCell(int, int, TerminalCell)}, a row at a time.
+	 */
+	@Override
+	public void fillRegion(int column, int row, int width, int height, TerminalCell cell) {
+		checkRegion(column, row, width, height);
+		for (int y = row; y < row + height; y++) {
+			for (int x = column; x < column + width; x++) {
+				setCell(x, y, cell);
+			}
+		}
+	}
+
+	@Override
+	public void clearRegion(int column, int row, int width, int height) {
+		fillRegion(column, row, width, height, null);
+	}
+
+	/**
+	 * {@inheritDoc} The default implementation reads the source region with
+	 * {@link #getCell(int, int)} and then sets each cell of the destination
+	 * region with {@link #setCell(int, int, TerminalCell)}.
+	 */
+	@Override
+	public void copyRegion(int column, int row, int width, int height, int toColumn, int toRow) {
+		checkRegion(column, row, width, height);
+		checkRegion(toColumn, toRow, width, height);
+		TerminalCell[][] region = new TerminalCell[height][width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				region[y][x] = getCell(column + x, row + y);
+			}
+		}
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				setCell(toColumn + x, toRow + y, region[y][x]);
 			}
 		}
 	}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of pre-rendered glyphs, which are drawn by copying them from a
+ * single image instead of laying out and rasterizing the text every time.
+ * <p>
+ * The atlas is divided into fixed size slots, one per combination of
+ * character and foreground color, which are rendered when they are first
+ * needed. Once every slot is in use, the clock algorithm chooses a slot
+ * which has not been drawn recently to be reused.
+ * @author Graham Edgecombe
+ */
+final class GlyphAtlas {
+
+	/**
+	 * The glyphs of a single foreground color.
+	 * @author Graham Edgecombe
+	 */
+	private static final class Page {
+
+		/**
+		 * The number of characters covered by the {@link #ascii} table.
+		 */
+		private static final int ASCII_CHARACTERS = 128;
+
+		/**
+		 * The color.
+		 */
+		private final Color color;
+
+		/**
+		 * The slots of the US-ASCII characters, or {@code -1} if a character
+		 * does not have one.
+		 */
+		private final int[] ascii = new int[ASCII_CHARACTERS];
+
+		/**
+		 * The slots of any other characters.
+		 */
+		private final Map<Character, Integer> other = new HashMap<Character, Integer>();
+
+		/**
+		 * The number of slots owned by this page.
+		 */
+		private int size = 0;
+
+		/**
+		 * Creates the page.
+		 * @param color The color.
+		 */
+		private Page(Color color) {
+			this.color = color;
+			Arrays.fill(ascii, -1);
+		}
+
+		/**
+		 * Gets the slot of a character.
+		 * @param character The character.
+		 * @return The slot, or {@code -1} if it does not have one.
+		 */
+		private int get(char character) {
+			if (character < ASCII_CHARACTERS) {
+				return ascii[character];
+			}
+			Integer slot = other.get(character);
+			return slot == null ? -1 : slot;
+		}
+
+		/**
+		 * Sets the slot of a character.
+		 * @param character The character.
+		 * @param slot The slot.
+		 */
+		private void put(char character, int slot) {
+			if (character < ASCII_CHARACTERS) {
+				ascii[character] = slot;
+			} else {
+				other.put(character, slot);
+			}
+			size++;
+		}
+
+		/**
+		 * Removes the slot of a character.
+		 * @param character The character.
+		 */
+		private void remove(char character) {
+			if (character < ASCII_CHARACTERS) {
+				ascii[character] = -1;
+			} else {
+				other.remove(character);
+			}
+			size--;
+		}
+
+	}
+
+	/**
+	 * The number of slots in each row of the atlas image.
+	 */
+	private static final int SLOTS_PER_ROW = 64;
+
+	/**
+	 * The default number of slots.
+	 */
+	static final int DEFAULT_CAPACITY = 2048;
+
+	/**
+	 * A fully transparent color, used to erase slots.
+	 */
+	private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+	/**
+	 * The font.
+	 */
+	private final Font font;
+
+	/**
+	 * The text antialiasing hint used to render glyphs.
+	 */
+	private final Object antialiasing;
+
+	/**
+	 * The width of a slot.
+	 */
+	private final int width;
+
+	/**
+	 * The height of a slot.
+	 */
+	private final int height;
+
+	/**
+	 * The distance from the top of a slot to the baseline.
+	 */
+	private final int baseline;
+
+	/**
+	 * The number of slots.
+	 */
+	private final int capacity;
+
+	/**
+	 * The pages, keyed by the RGB value of their color.
+	 */
+	private final Map<Integer, Page> pages = new HashMap<Integer, Page>();
+
+	/**
+	 * The page which owns each slot.
+	 */
+	private final Page[] owners;
+
+	/**
+	 * The character in each slot.
+	 */
+	private final char[] characters;
+
+	/**
+	 * A flag for each slot indicating if it has been drawn since the clock
+	 * hand last passed it.
+	 */
+	private final boolean[] referenced;
+
+	/**
+	 * The image holding the glyphs, which is created when it is first needed.
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The number of slots in use.
+	 */
+	private int size = 0;
+
+	/**
+	 * The next slot considered for reuse.
+	 */
+	private int hand = 0;
+
+	/**
+	 * The number of glyphs drawn from the atlas.
+	 */
+	private long hits = 0;
+
+	/**
+	 * The number of glyphs which had to be rendered.
+	 */
+	private long misses = 0;
+
+	/**
+	 * Creates the glyph atlas.
+	 * @param font The font.
+	 * @param antialiasing The text antialiasing hint, or {@code null} to use
+	 * the default.
+	 * @param width The width of a slot.
+	 * @param height The height of a slot.
+	 * @param baseline The distance from the top of a slot to the baseline.
+	 * @param capacity The number of slots.
+	 * @throws IllegalArgumentException if the width, height or capacity is
+	 * not positive.
+	 */
+	GlyphAtlas(Font font, Object antialiasing, int width, int height, int baseline, int capacity) {
+		if (width <= 0 || height <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("width, height and capacity must be positive");
+		}
+		if (antialiasing == RenderingHints.VALUE_TEXT_ANTIALIAS_OFF || antialiasing == RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT || antialiasing == null) {
+			this.antialiasing = antialiasing;
+		} else {
+			// subpixel antialiasing needs an opaque destination
+			this.antialiasing = RenderingHints.VALUE_TEXT_ANTIALIAS_ON;
+		}
+		this.font = font;
+		this.width = width;
+		this.height = height;
+		this.baseline = baseline;
+		this.capacity = capacity;
+		this.owners = new Page[capacity];
+		this.characters = new char[capacity];
+		this.referenced = new boolean[capacity];
+	}
+
+	/**
+	 * Draws characters, one per slot width, in the specified color.
+	 * @param g The graphics context.
+	 * @param buf The buffer holding the characters.
+	 * @param off The offset of the first character.
+	 * @param len The number of characters.
+	 * @param color The color.
+	 * @param x The x coordinate of the left of the first character.
+	 * @param y The y coordinate of the top of the characters.
+	 */
+	void drawChars(Graphics g, char[] buf, int off, int len, Color color, int x, int y) {
+		Page page = pages.get(color.getRGB());
+		if (page == null) {
+			page = new Page(color);
+			pages.put(color.getRGB(), page);
+		}
+
+		for (int end = off + len; off < end; off++, x += width) {
+			char character = buf[off];
+			if (character == ' ') {
+				continue;
+			}
+
+			int slot = page.get(character);
+			if (slot == -1) {
+				slot = render(page, character);
+				misses++;
+			} else {
+				hits++;
+			}
+			referenced[slot] = true;
+
+			int sx = (slot % SLOTS_PER_ROW) * width;
+			int sy = (slot / SLOTS_PER_ROW) * height;
+			g.drawImage(image, x, y, x + width, y + height, sx, sy, sx + width, sy + height, null);
+		}
+	}
+
+	/**
+	 * Renders a glyph into a free slot, reusing a slot if there are none.
+	 * @param page The page.
+	 * @param character The character.
+	 * @return The slot.
+	 */
+	private int render(Page page, char character) {
+		if (image == null) {
+			int rows = (capacity + SLOTS_PER_ROW - 1) / SLOTS_PER_ROW;
+			image = new BufferedImage(Math.min(capacity, SLOTS_PER_ROW) * width, rows * height, BufferedImage.TYPE_INT_ARGB_PRE);
+		}
+
+		int slot;
+		if (size < capacity) {
+			slot = size++;
+		} else {
+			while (referenced[hand]) {
+				referenced[hand] = false;
+				hand = (hand + 1) % capacity;
+			}
+			slot = hand;
+			hand = (hand + 1) % capacity;
+
+			Page owner = owners[slot];
+			owner.remove(characters[slot]);
+			if (owner.size == 0 && owner != page) {
+				pages.remove(owner.color.getRGB());
+			}
+		}
+
+		owners[slot] = page;
+		characters[slot] = character;
+		page.put(character, slot);
+
+		int sx = (slot % SLOTS_PER_ROW) * width;
+		int sy = (slot / SLOTS_PER_ROW) * height;
+
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setComposite(AlphaComposite.Src);
+			g.setColor(TRANSPARENT);
+			g.fillRect(sx, sy, width, height);
+
+			g.setComposite(AlphaComposite.SrcOver);
+			if (antialiasing != null) {
+				g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, antialiasing);
+			}
+			g.clipRect(sx, sy, width, height);
+			g.setFont(font);
+			g.setColor(page.color);
+			g.drawChars(new char[] { character }, 0, 1, sx, sy + baseline);
+		} finally {
+			g.dispose();
+		}
+		return slot;
+	}
+
+	/**
+	 * Gets the number of glyphs drawn from the atlas.
+	 * @return The number of hits.
+	 */
+	long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of glyphs which had to be rendered.
+	 * @return The number of misses.
+	 */
+	long getMisses() {
+		return misses;
+	}
+
+}
@@ -24,18 +24,21 @@ package com.grahamedgecombe.jterminal;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
-import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.io.IOException;
 import java.io.PipedReader;
 import java.io.PipedWriter;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JScrollBar;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.junit.Test;
 
@@ -57,19 +60,14 @@ public class JTerminal extends JComponent {
 		
 
 		/**
-		 * The cell width in pixels.
+		 * The painter used on the event dispatch thread.
 		 */
-		private static final int CELL_WIDTH = 8;
+		private final TerminalPainter painter = new TerminalPainter();
 
 		/**
-		 * The cell height in pixels.
+		 * The frame painted on the event dispatch thread.
 		 */
-		private static final int CELL_HEIGHT = 12;
-
-		/**
-		 * The font.
-		 */
-		private final Font font = new Font("Monospaced", Font.PLAIN, CELL_HEIGHT);
+		private final TerminalPainter.Frame frame = new TerminalPainter.Frame();
 
 		/**
 		 * The unique serial version id.
@@ -85,7 +83,7 @@ public class JTerminal extends JComponent {
 
 		@Override
 		public Dimension getMinimumSize() {
-			return new Dimension(model.getColumns() * CELL_WIDTH, model.getRows() * CELL_HEIGHT);
+			return new Dimension(model.getColumns() * TerminalPainter.CELL_WIDTH, model.getRows() * TerminalPainter.CELL_HEIGHT);
 		}
 
 		@Override
@@ -100,36 +98,18 @@ public class JTerminal extends JComponent {
 
 		@Override
 		public void paint(Graphics g) {
-			g.setFont(font);
-
-			int width = model.getColumns();
-			int height = model.getBufferSize();
-
-			g.setColor(model.getDefaultBackgroundColor());
-			g.fillRect(0, 0, width * CELL_WIDTH, height * CELL_HEIGHT);
-
-			int start = scrollBar == null ? 0 : scrollBar.getValue();
-			for (int y = start; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					TerminalCell cell = model.getCell(x, y);
-					boolean cursorHere = model.getCursorRow() == y && model.getCursorColumn() == x;
-
-					if (cursorHere && cell == null) {
-						cell = new TerminalCell(' ', model.getDefaultBackgroundColor(), model.getDefaultForegroundColor());
-					}
-
-					if (cell != null) {
-						int px = x * CELL_WIDTH;
-						int py = (y - start) * CELL_HEIGHT;
-
-						g.setColor(cursorHere ? cell.getForegroundColor() : cell.getBackgroundColor());
-						g.fillRect(px, py, CELL_WIDTH, CELL_HEIGHT);
-
-						g.setColor(cursorHere ? cell.getBackgroundColor() : cell.getForegroundColor());
-						g.drawChars(new char[] { cell.getCharacter() }, 0, 1, px, py + CELL_HEIGHT);
-					}
+			int start = getViewportStart();
+			if (renderThread != null) {
+				if (!renderThread.paint(g, start)) {
+					// the first frame of the viewport is still being painted
+					g.setColor(model.getDefaultBackgroundColor());
+					g.fillRect(0, 0, getWidth(), getHeight());
+					renderThread.requestFrame(model, start, getGraphicsConfiguration());
 				}
+				return;
 			}
+
+			painter.paint(g, model, model, start, frame, getGraphicsConfiguration());
 		}
 
 	}
@@ -146,10 +126,129 @@ public class JTerminal extends JComponent {
 	 */
 	private JScrollBar scrollBar;
 
+	/**
+	 * The component that actually draws the terminal.
+	 */
+	private Terminal terminal;
+
+	/**
+	 * A flag indicating if glyphs are drawn from a {@link GlyphAtlas}.
+	 */
+	private boolean glyphAtlasEnabled = false;
+
+	/**
+	 * A flag indicating if frames are painted on a render thread.
+	 */
+	private boolean renderThreadEnabled = false;
+
+	/**
+	 * The thread which paints frames off the event dispatch thread, or
+	 * {@code null} if frames are painted on the event dispatch thread. The
+	 * thread is stopped while the terminal is removed from its container, so
+	 * that a terminal which is thrown away does not keep it running.
+	 */
+	private RenderThread renderThread;
+
 	/**
 	 * The current model.
 	 */
-	private static TerminalModel model;
+	private TerminalModel model;
+
+	/**
+	 * The default maximum number of frames painted per second.
+	 */
+	private static final int DEFAULT_FRAME_RATE = 60;
+
+	/**
+	 * The maximum number of consecutive frames which may be dropped while
+	 * the model is changing, so that a continuous stream of output is still
+	 * shown.
+	 */
+	private static final int MAXIMUM_DROPPED_FRAMES = 2;
+
+	/**
+	 * The listener which schedules a frame when the model changes.
+	 */
+	private final TerminalModelListener modelListener = new TerminalModelListener() {
+		@Override
+		public void modelChanged(TerminalModel model) {
+			lastChange = System.nanoTime();
+			changed = true;
+			if (!frameTimer.isRunning()) {
+				frameTimer.start();
+			}
+		}
+	};
+
+	/**
+	 * The timer which paints at most one frame per frame interval, and stops
+	 * once the model has stopped changing.
+	 */
+	private final Timer frameTimer = new Timer(1000 / DEFAULT_FRAME_RATE, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent evt) {
+			if (!changed) {
+				frameTimer.stop();
+				if (changed) {
+					// the model changed after it was checked, so keep going
+					frameTimer.start();
+				}
+				return;
+			}
+
+			/*
+			 * if the model is still changing, it is probably in the middle of
+			 * a burst of output, so the frame is dropped in favour of a later
+			 * one which will show more of it
+			 */
+			long sinceChange = System.nanoTime() - lastChange;
+			if (sinceChange < frameInterval / 4 && droppedFrames < MAXIMUM_DROPPED_FRAMES) {
+				droppedFrames++;
+				framesDropped++;
+				return;
+			}
+
+			changed = false;
+			droppedFrames = 0;
+			framesPainted++;
+			requestFrame();
+		}
+	});
+
+	/**
+	 * The maximum number of frames painted per second.
+	 */
+	private int frameRate = DEFAULT_FRAME_RATE;
+
+	/**
+	 * The frame interval in nanoseconds.
+	 */
+	private long frameInterval = TimeUnit.SECONDS.toNanos(1) / DEFAULT_FRAME_RATE;
+
+	/**
+	 * A flag indicating if the model has changed since the last frame.
+	 */
+	private volatile boolean changed = false;
+
+	/**
+	 * The time of the last change to the model, in nanoseconds.
+	 */
+	private volatile long lastChange;
+
+	/**
+	 * The number of consecutive frames which have been dropped.
+	 */
+	private int droppedFrames = 0;
+
+	/**
+	 * The number of frames painted in response to changes to the model.
+	 */
+	private volatile long framesPainted = 0;
+
+	/**
+	 * The number of frames dropped because the model was still changing.
+	 */
+	private volatile long framesDropped = 0;
 
 	/**
 	 * Creates a terminal with the a new {@link Vt100TerminalModel}.
@@ -189,17 +288,38 @@ public class JTerminal extends JComponent {
 			scrollBar.addAdjustmentListener(new AdjustmentListener() {
 				@Override
 				public void adjustmentValueChanged(AdjustmentEvent evt) {
-					repaint();
+					requestFrame();
 				}
 			});
 			add(BorderLayout.LINE_END, scrollBar);
 		}
 
-		add(BorderLayout.CENTER, new Terminal());
+		terminal = new Terminal();
+		add(BorderLayout.CENTER, terminal);
 
 		repaint();
 	}
 
+	/**
+	 * Gets the first row of the buffer in the viewport.
+	 * @return The first row.
+	 */
+	private int getViewportStart() {
+		return scrollBar == null ? 0 : scrollBar.getValue();
+	}
+
+	/**
+	 * Paints a new frame, on the render thread if it is enabled and
+	 * otherwise by repainting the terminal.
+	 */
+	private void requestFrame() {
+		if (renderThread != null) {
+			renderThread.requestFrame(model, getViewportStart(), terminal.getGraphicsConfiguration());
+		} else {
+			repaint();
+		}
+	}
+
 	/**
 	 * Gets the current terminal model.
 	 * @return The current terminal model.
@@ -217,7 +337,158 @@ public class JTerminal extends JComponent {
 		if (model == null) {
 			throw new NullPointerException("model");
 		}
+		if (this.model != null) {
+			this.model.removeListener(modelListener);
+		}
 		this.model = model;
+		model.addListener(modelListener);
+		modelListener.modelChanged(model);
+	}
+
+	/**
+	 * Gets the maximum number of frames painted per second.
+	 * @return The frame rate.
+	 */
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * Sets the maximum number of frames painted per second. Changes to the
+	 * model are coalesced, so however often it changes the terminal is
+	 * repainted at most once per frame interval.
+	 * @param frameRate The frame rate.
+	 * @throws IllegalArgumentException if the frame rate is not positive.
+	 */
+	public void setFrameRate(int frameRate) {
+		if (frameRate <= 0) {
+			throw new IllegalArgumentException("frameRate must be positive");
+		}
+		this.frameRate = frameRate;
+		this.frameInterval = TimeUnit.SECONDS.toNanos(1) / frameRate;
+		int delay = Math.max(1, 1000 / frameRate);
+		frameTimer.setDelay(delay);
+		frameTimer.setInitialDelay(delay);
+	}
+
+	/**
+	 * Gets the number of frames which have been painted because the model
+	 * changed.
+	 * @return The number of frames painted.
+	 */
+	public long getFramesPainted() {
+		return framesPainted;
+	}
+
+	/**
+	 * Gets the number of frames which have been dropped because the model
+	 * was still changing.
+	 * @return The number of frames dropped.
+	 */
+	public long getFramesDropped() {
+		return framesDropped;
+	}
+
+	/**
+	 * Checks if glyphs are drawn from an atlas of pre-rendered images.
+	 * @return {@code true} if so, {@code false} if not.
+	 */
+	public boolean isGlyphAtlasEnabled() {
+		return glyphAtlasEnabled;
+	}
+
+	/**
+	 * Sets whether glyphs are drawn from an atlas of pre-rendered images
+	 * instead of being rendered every time the terminal is painted. Glyphs
+	 * are added to the atlas as they are first drawn, and those which have
+	 * not been drawn recently are discarded once it is full. The atlas is
+	 * disabled by default.
+	 * @param enabled {@code true} to enable the atlas, {@code false} to
+	 * disable it and release its memory.
+	 */
+	public void setGlyphAtlasEnabled(boolean enabled) {
+		glyphAtlasEnabled = enabled;
+		if (terminal != null) {
+			terminal.painter.setGlyphAtlasEnabled(enabled);
+			terminal.frame.invalidate();
+		}
+		if (renderThread != null) {
+			// the render thread owns its painter, so it is replaced
+			stopRenderThread();
+			startRenderThread();
+		}
+		repaint();
+	}
+
+	/**
+	 * Checks if frames are painted on a separate render thread.
+	 * @return {@code true} if so, {@code false} if not.
+	 */
+	public boolean isRenderThreadEnabled() {
+		return renderThreadEnabled;
+	}
+
+	/**
+	 * Sets whether frames are painted on a separate render thread instead of
+	 * the event dispatch thread. The render thread paints each frame from a
+	 * snapshot of the model, if it is a {@link Vt100TerminalModel}, into an
+	 * image which the event dispatch thread only has to copy to the screen.
+	 * This means that a burst of output does not hold up the handling of
+	 * input, and that a frame never shows a partly printed escape sequence.
+	 * The render thread is disabled by default.
+	 * <p>
+	 * The render thread is stopped when the terminal is removed from its
+	 * container, and started again if it is added to one while the render
+	 * thread is still enabled.
+	 * @param enabled {@code true} to start the render thread, {@code false}
+	 * to stop it.
+	 */
+	public void setRenderThreadEnabled(boolean enabled) {
+		if (enabled == renderThreadEnabled) {
+			return;
+		}
+		renderThreadEnabled = enabled;
+		if (enabled) {
+			startRenderThread();
+		} else if (renderThread != null) {
+			stopRenderThread();
+		}
+	}
+
+	/**
+	 * Starts the render thread and requests its first frame.
+	 */
+	private void startRenderThread() {
+		renderThread = new RenderThread(terminal, glyphAtlasEnabled);
+		renderThread.start();
+		requestFrame();
+	}
+
+	/**
+	 * Stops the render thread, so that frames are painted on the event
+	 * dispatch thread again.
+	 */
+	private void stopRenderThread() {
+		renderThread.shutdown();
+		renderThread = null;
+		terminal.frame.invalidate();
+		repaint();
+	}
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (renderThreadEnabled && renderThread == null) {
+			startRenderThread();
+		}
+	}
+
+	@Override
+	public void removeNotify() {
+		if (renderThread != null) {
+			stopRenderThread();
+		}
+		super.removeNotify();
 	}
 
 	/**
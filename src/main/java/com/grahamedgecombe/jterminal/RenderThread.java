@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.util.Map;
+
+import com.grahamedgecombe.jterminal.vt100.Vt100TerminalModel;
+
+/**
+ * A thread which paints frames of a terminal off the event dispatch thread.
+ * <p>
+ * Each frame is painted from a snapshot of the model, if the model can take
+ * one, into the back of a pair of images. Once it is complete the images
+ * are swapped and the component is repainted, which only has to draw the
+ * front image. Printing to the model is therefore never blocked by painting,
+ * and painting never sees a half-printed escape sequence.
+ * @author Graham Edgecombe
+ */
+final class RenderThread extends Thread {
+
+	/**
+	 * The component which shows the frames.
+	 */
+	private final Component component;
+
+	/**
+	 * The painter, which is only used by this thread.
+	 */
+	private final TerminalPainter painter = new TerminalPainter();
+
+	/**
+	 * The lock which guards the request and the front frame.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * The frame shown by the component.
+	 */
+	private TerminalPainter.Frame front = new TerminalPainter.Frame();
+
+	/**
+	 * The frame which is painted next.
+	 */
+	private TerminalPainter.Frame back = new TerminalPainter.Frame();
+
+	/**
+	 * A flag indicating if a frame has been requested.
+	 */
+	private boolean requested = false;
+
+	/**
+	 * A flag indicating if the thread should keep running.
+	 */
+	private boolean running = true;
+
+	/**
+	 * The model of the requested frame.
+	 */
+	private TerminalModel model;
+
+	/**
+	 * The first row of the buffer in the viewport of the requested frame.
+	 */
+	private int start;
+
+	/**
+	 * The graphics configuration of the requested frame.
+	 */
+	private GraphicsConfiguration config;
+
+	/**
+	 * Creates the render thread.
+	 * @param component The component which shows the frames.
+	 * @param glyphAtlasEnabled A flag indicating if glyphs are drawn from a
+	 * {@link GlyphAtlas}.
+	 */
+	RenderThread(Component component, boolean glyphAtlasEnabled) {
+		super("JTerminal renderer");
+		this.component = component;
+		painter.setGlyphAtlasEnabled(glyphAtlasEnabled);
+		setDaemon(true);
+	}
+
+	/**
+	 * Requests that a frame is painted. Requests made while a frame is being
+	 * painted are coalesced into a single frame.
+	 * @param model The model.
+	 * @param start The first row of the buffer in the viewport.
+	 * @param config The graphics configuration of the component, or
+	 * {@code null} if it is not displayable.
+	 */
+	void requestFrame(TerminalModel model, int start, GraphicsConfiguration config) {
+		synchronized (lock) {
+			this.model = model;
+			this.start = start;
+			this.config = config;
+			requested = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Draws the most recent frame.
+	 * @param g The graphics context.
+	 * @param start The first row of the buffer in the viewport.
+	 * @return {@code true} if a frame of the viewport was drawn,
+	 * {@code false} if there is not one yet.
+	 */
+	boolean paint(Graphics g, int start) {
+		synchronized (lock) {
+			if (!front.isValid() || front.getStart() != start) {
+				return false;
+			}
+			g.drawImage(front.getImage(), 0, 0, null);
+			return true;
+		}
+	}
+
+	/**
+	 * Stops the thread once it has finished painting the current frame.
+	 */
+	void shutdown() {
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		Object antialiasing = getTextAntialiasing();
+		for (;;) {
+			TerminalModel model;
+			int start;
+			GraphicsConfiguration config;
+			synchronized (lock) {
+				while (running && !requested) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+				if (!running) {
+					return;
+				}
+				requested = false;
+				model = this.model;
+				start = this.start;
+				config = this.config;
+			}
+
+			TerminalScreen screen = model;
+			if (model instanceof Vt100TerminalModel) {
+				screen = ((Vt100TerminalModel) model).snapshot();
+			}
+			painter.update(back, screen, model, start, config, antialiasing);
+
+			synchronized (lock) {
+				TerminalPainter.Frame frame = front;
+				front = back;
+				back = frame;
+			}
+			component.repaint();
+		}
+	}
+
+	/**
+	 * Gets the text antialiasing hint of the desktop, as the frames are not
+	 * painted with a graphics context of the screen.
+	 * @return The hint, or {@code null} if the desktop does not have one.
+	 */
+	private static Object getTextAntialiasing() {
+		Object hints = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+		if (hints instanceof Map) {
+			return ((Map<?, ?>) hints).get(RenderingHints.KEY_TEXT_ANTIALIASING);
+		}
+		return null;
+	}
+
+}
@@ -22,15 +22,14 @@
 
 package com.grahamedgecombe.jterminal;
 
-import java.awt.Color;
-
 import com.grahamedgecombe.jterminal.bell.BellStrategy;
 
 /**
  * Model for terminals - defines methods for getting/setting cells, printing
- * text to a terminal and getting the size of the terminal and buffer.
+ * text to a terminal and getting the size of the terminal and buffer. The
+ * methods which read the model are inherited from {@link TerminalScreen}.
  */
-public interface TerminalModel {
+public interface TerminalModel extends TerminalScreen {
 
 	/**
 	 * Gets the bell strategy.
@@ -45,11 +44,65 @@ public interface TerminalModel {
 	 */
 	public void setBellStrategy(BellStrategy strategy);
 
+	/**
+	 * Adds a listener which is notified when the model changes.
+	 * @param listener The listener.
+	 * @throws NullPointerException if the listener is {@code null}.
+	 */
+	public void addListener(TerminalModelListener listener);
+
+	/**
+	 * Removes a listener.
+	 * @param listener The listener.
+	 */
+	public void removeListener(TerminalModelListener listener);
+
 	/**
 	 * Clears the terminal.
 	 */
 	public void clear();
 
+	/**
+	 * Sets every cell in a rectangular region to the same cell.
+	 * @param column The first column of the region.
+	 * @param row The first row of the region.
+	 * @param width The number of columns in the region.
+	 * @param height The number of rows in the region.
+	 * @param cell The cell, or {@code null} to clear the region.
+	 * @throws IllegalArgumentException if the width or height is negative.
+	 * @throws IndexOutOfBoundsException if the region is not within the
+	 * buffer.
+	 */
+	public void fillRegion(int column, int row, int width, int height, TerminalCell cell);
+
+	/**
+	 * Clears every cell in a rectangular region.
+	 * @param column The first column of the region.
+	 * @param row The first row of the region.
+	 * @param width The number of columns in the region.
+	 * @param height The number of rows in the region.
+	 * @throws IllegalArgumentException if the width or height is negative.
+	 * @throws IndexOutOfBoundsException if the region is not within the
+	 * buffer.
+	 */
+	public void clearRegion(int column, int row, int width, int height);
+
+	/**
+	 * Copies the cells in a rectangular region to another region of the same
+	 * size. The regions may overlap, in which case the cells are copied as
+	 * if the source region was first copied to a temporary buffer.
+	 * @param column The first column of the source region.
+	 * @param row The first row of the source region.
+	 * @param width The number of columns in the regions.
+	 * @param height The number of rows in the regions.
+	 * @param toColumn The first column of the destination region.
+	 * @param toRow The first row of the destination region.
+	 * @throws IllegalArgumentException if the width or height is negative.
+	 * @throws IndexOutOfBoundsException if either region is not within the
+	 * buffer.
+	 */
+	public void copyRegion(int column, int row, int width, int height, int toColumn, int toRow);
+
 	/**
 	 * Moves the cursor back n characters.
 	 * @param n The number of characters.
@@ -88,16 +141,6 @@ public interface TerminalModel {
 	 */
 	public void setCell(int column, int row, TerminalCell cell);
 
-	/**
-	 * Gets a cell.
-	 * @param column The column.
-	 * @param row The row.
-	 * @return The cell.
-	 * @throws IndexOutOfBoundsException if the column and/or row number(s) are
-	 * out of bounds.
-	 */
-	public TerminalCell getCell(int column, int row);
-
 	/**
 	 * Prints the specified string to the terminal at the cursor position,
 	 * interpreting any escape sequences/special ASCII codes the model may
@@ -107,30 +150,6 @@ public interface TerminalModel {
 	 */
 	public void print(String str);
 
-	/**
-	 * Gets the number of columns.
-	 * @return The number of columns.
-	 */
-	public int getColumns();
-
-	/**
-	 * Gets the number of rows.
-	 * @return The number of rows.
-	 */
-	public int getRows();
-
-	/**
-	 * Gets the buffer size.
-	 * @return The buffer size.
-	 */
-	public int getBufferSize();
-
-	/**
-	 * Gets the cursor row.
-	 * @return The cursor row.
-	 */
-	public int getCursorRow();
-
 	/**
 	 * Sets the cursor row.
 	 * @param row The cursor row.
@@ -138,12 +157,6 @@ public interface TerminalModel {
 	 */
 	public void setCursorRow(int row);
 
-	/**
-	 * Gets the cursor column.
-	 * @return The cursor column.
-	 */
-	public int getCursorColumn();
-
 	/**
 	 * Sets the cursor column.
 	 * @param column The cursor column.
@@ -151,17 +164,5 @@ public interface TerminalModel {
 	 */
 	public void setCursorColumn(int column);
 
-	/**
-	 * Gets the default background color.
-	 * @return The default background color.
-	 */
-	public Color getDefaultBackgroundColor();
-
-	/**
-	 * Gets the default foreground color.
-	 * @return The default foreground color.
-	 */
-	public Color getDefaultForegroundColor();
-
 }
 
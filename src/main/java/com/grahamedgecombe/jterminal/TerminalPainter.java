@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import com.grahamedgecombe.jterminal.vt100.TerminalSnapshot;
+import com.grahamedgecombe.jterminal.vt100.Vt100TerminalModel;
+
+/**
+ * Draws the contents of a {@link TerminalScreen}, either directly or into a
+ * {@link Frame} which is kept up to date with the rows that have changed.
+ * A painter is not thread-safe, but it may be used on any single thread.
+ * @author Graham Edgecombe
+ */
+final class TerminalPainter {
+
+	/**
+	 * An image holding a complete frame, along with the state of the screen
+	 * that was drawn into it.
+	 * @author Graham Edgecombe
+	 */
+	static final class Frame {
+
+		/**
+		 * The image, which is created when it is first needed.
+		 */
+		private BufferedImage image;
+
+		/**
+		 * A flag indicating if the {@link #image} holds a complete frame.
+		 */
+		private boolean valid = false;
+
+		/**
+		 * A flag for each row of the viewport indicating if it must be
+		 * painted again.
+		 */
+		private boolean[] dirtyRows;
+
+		/**
+		 * The object the screen in the {@link #image} was read from.
+		 */
+		private Object source;
+
+		/**
+		 * The first row of the buffer in the viewport.
+		 */
+		private int start;
+
+		/**
+		 * The generation of the screen.
+		 */
+		private long generation;
+
+		/**
+		 * The scroll count of the screen.
+		 */
+		private long scrollCount;
+
+		/**
+		 * The cursor row.
+		 */
+		private int cursorRow;
+
+		/**
+		 * The cursor column.
+		 */
+		private int cursorColumn;
+
+		/**
+		 * Gets the image.
+		 * @return The image, or {@code null} if it has not been created.
+		 */
+		BufferedImage getImage() {
+			return image;
+		}
+
+		/**
+		 * Checks if the frame holds a complete image.
+		 * @return {@code true} if so, {@code false} if not.
+		 */
+		boolean isValid() {
+			return valid;
+		}
+
+		/**
+		 * Gets the first row of the buffer in the viewport.
+		 * @return The first row.
+		 */
+		int getStart() {
+			return start;
+		}
+
+		/**
+		 * Marks the frame as needing to be painted again in full.
+		 */
+		void invalidate() {
+			valid = false;
+		}
+
+	}
+
+	/**
+	 * The cell width in pixels.
+	 */
+	static final int CELL_WIDTH = 8;
+
+	/**
+	 * The cell height in pixels.
+	 */
+	static final int CELL_HEIGHT = 12;
+
+	/**
+	 * Characters which reach the top and the bottom of a typical font, used
+	 * to find the height of its glyphs.
+	 */
+	private static final String TALLEST_CHARACTERS = "|_gjl([";
+
+	/**
+	 * The font.
+	 */
+	private final Font font = new Font("Monospaced", Font.PLAIN, CELL_HEIGHT);
+
+	/**
+	 * The font scaled so that every character is exactly {@link #CELL_WIDTH}
+	 * pixels wide, which is created when the painter is first used.
+	 */
+	private Font cellFont;
+
+	/**
+	 * A flag indicating if characters drawn in the {@link #cellFont} are
+	 * exactly one cell apart, so a run of them can be drawn at once.
+	 */
+	private boolean fixedWidth;
+
+	/**
+	 * The distance from the top of a cell to the baseline of its character.
+	 */
+	private int baseline;
+
+	/**
+	 * The buffer holding the characters of the current run.
+	 */
+	private char[] run = new char[0];
+
+	/**
+	 * A flag indicating if glyphs are drawn from the {@link #atlas}.
+	 */
+	private boolean glyphAtlasEnabled = false;
+
+	/**
+	 * The glyph atlas, which is created when the painter is first used with
+	 * the atlas enabled.
+	 */
+	private GlyphAtlas atlas;
+
+	/**
+	 * Sets whether glyphs are drawn from a {@link GlyphAtlas}. Frames must be
+	 * invalidated by the caller.
+	 * @param enabled {@code true} to enable the atlas, {@code false} to
+	 * disable it and release its memory.
+	 */
+	void setGlyphAtlasEnabled(boolean enabled) {
+		glyphAtlasEnabled = enabled;
+		if (!enabled) {
+			atlas = null;
+		}
+	}
+
+	/**
+	 * Paints a screen. If the whole viewport is to be painted, the frame is
+	 * brought up to date and drawn. Otherwise, the frame is drawn if it is
+	 * already up to date, and if not only the cells in the clip rectangle are
+	 * painted directly.
+	 * @param g The graphics context.
+	 * @param screen The screen.
+	 * @param source The object the screen was read from.
+	 * @param start The first row of the buffer in the viewport.
+	 * @param frame The frame.
+	 * @param config The graphics configuration used to create the frame's
+	 * image, or {@code null} to use a default image type.
+	 */
+	void paint(Graphics g, TerminalScreen screen, Object source, int start, Frame frame, GraphicsConfiguration config) {
+		prepare(g, getTextAntialiasing(g));
+
+		int width = screen.getColumns();
+
+		/*
+		 * only the rows in the viewport are visible, and only the cells which
+		 * intersect the clip rectangle need to be painted
+		 */
+		int rows = Math.min(screen.getRows(), screen.getBufferSize() - start);
+		if (width <= 0 || rows <= 0) {
+			return;
+		}
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null || clip.contains(0, 0, width * CELL_WIDTH, rows * CELL_HEIGHT)) {
+			/*
+			 * a whole frame is drawn into the frame's image, which only needs
+			 * to be updated where the screen has changed
+			 */
+			update(frame, screen, source, start, config, getTextAntialiasing(g));
+			g.drawImage(frame.image, 0, 0, null);
+			return;
+		}
+
+		if (isCurrent(frame, screen, source, start)) {
+			g.drawImage(frame.image, 0, 0, null);
+			return;
+		}
+
+		int firstColumn = Math.max(0, clip.x / CELL_WIDTH);
+		int lastColumn = Math.min(width, (clip.x + clip.width + CELL_WIDTH - 1) / CELL_WIDTH);
+		int firstRow = Math.max(0, clip.y / CELL_HEIGHT);
+		int lastRow = Math.min(rows, (clip.y + clip.height + CELL_HEIGHT - 1) / CELL_HEIGHT);
+
+		g.setFont(cellFont);
+		for (int row = firstRow; row < lastRow; row++) {
+			paintRow(g, screen, start, row, firstColumn, lastColumn);
+		}
+	}
+
+	/**
+	 * Creates the {@link #cellFont} and the {@link #atlas}, if they have not
+	 * been created yet.
+	 * @param g A graphics context which text will be drawn into.
+	 * @param antialiasing The text antialiasing hint, or {@code null}.
+	 */
+	private void prepare(Graphics g, Object antialiasing) {
+		if (cellFont == null) {
+			createCellFont(g);
+		}
+
+		if (glyphAtlasEnabled && atlas == null) {
+			atlas = new GlyphAtlas(cellFont, antialiasing, CELL_WIDTH, CELL_HEIGHT, baseline, GlyphAtlas.DEFAULT_CAPACITY);
+		}
+	}
+
+	/**
+	 * Creates the {@link #cellFont}, by scaling the font so that its
+	 * characters are exactly one cell wide and fit within the height of a
+	 * cell, and positions the baseline.
+	 * @param g The graphics context.
+	 */
+	private void createCellFont(Graphics g) {
+		FontMetrics metrics = g.getFontMetrics(font);
+		FontRenderContext context = metrics.getFontRenderContext();
+
+		int advance = metrics.charWidth('M');
+		double scaleX = advance > 0 ? (double) CELL_WIDTH / advance : 1;
+		double scaleY = 1;
+
+		/*
+		 * each row is painted on its own, so the glyphs are shrunk until the
+		 * tallest ones fit within a row rather than overhanging the rows above
+		 * or below it
+		 */
+		Font scaled = font;
+		Rectangle bounds = null;
+		for (int i = 0; i < 8; i++) {
+			if (scaleX != 1 || scaleY != 1) {
+				scaled = font.deriveFont(AffineTransform.getScaleInstance(scaleX, scaleY));
+			}
+			bounds = scaled.createGlyphVector(context, TALLEST_CHARACTERS).getPixelBounds(context, 0, 0);
+			if (bounds.height <= CELL_HEIGHT) {
+				break;
+			}
+			scaleY *= (CELL_HEIGHT - 0.5) / bounds.height;
+		}
+
+		cellFont = scaled;
+		fixedWidth = g.getFontMetrics(cellFont).charWidth('M') == CELL_WIDTH;
+		baseline = Math.max(0, Math.min(CELL_HEIGHT, -bounds.y));
+	}
+
+	/**
+	 * Gets the text antialiasing hint of a graphics context.
+	 * @param g The graphics context.
+	 * @return The hint, or {@code null} if it does not have one.
+	 */
+	static Object getTextAntialiasing(Graphics g) {
+		if (g instanceof Graphics2D) {
+			return ((Graphics2D) g).getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the generations reported by a screen can be trusted to
+	 * change whenever its cells do. Other models may change their cells
+	 * without reporting it, so frames of them are always painted in full.
+	 * @param screen The screen.
+	 * @return {@code true} if so, {@code false} if not.
+	 */
+	private static boolean tracksDamage(TerminalScreen screen) {
+		return screen instanceof Vt100TerminalModel || screen instanceof TerminalSnapshot;
+	}
+
+	/**
+	 * Checks if a frame shows the current state of a screen.
+	 * @param frame The frame.
+	 * @param screen The screen.
+	 * @param source The object the screen was read from.
+	 * @param start The first row of the buffer in the viewport.
+	 * @return {@code true} if so, {@code false} if not.
+	 */
+	boolean isCurrent(Frame frame, TerminalScreen screen, Object source, int start) {
+		return tracksDamage(screen) && frame.valid && frame.source == source && frame.start == start
+			&& frame.generation == screen.getGeneration() && frame.scrollCount == screen.getScrollCount()
+			&& frame.cursorRow == screen.getCursorRow() && frame.cursorColumn == screen.getCursorColumn();
+	}
+
+	/**
+	 * Brings a frame up to date with a screen. If the screen tracks damage,
+	 * only the rows which have changed since the frame was last updated are
+	 * painted again, and if the screen has scrolled the rows which are still
+	 * visible are moved with
+	 * {@link Graphics#copyArea(int, int, int, int, int, int)}. Otherwise the
+	 * whole frame is painted again.
+	 * @param frame The frame.
+	 * @param screen The screen.
+	 * @param source The object the screen was read from. A frame last
+	 * updated from a different object is painted again in full.
+	 * @param start The first row of the buffer in the viewport.
+	 * @param config The graphics configuration used to create the frame's
+	 * image, or {@code null} to use a default image type.
+	 * @param antialiasing The text antialiasing hint, or {@code null}.
+	 */
+	void update(Frame frame, TerminalScreen screen, Object source, int start, GraphicsConfiguration config, Object antialiasing) {
+		int width = screen.getColumns();
+		int rows = Math.max(0, Math.min(screen.getRows(), screen.getBufferSize() - start));
+		int imageWidth = Math.max(1, width * CELL_WIDTH);
+		int imageHeight = Math.max(1, screen.getRows() * CELL_HEIGHT);
+		if (frame.image == null || frame.image.getWidth() != imageWidth || frame.image.getHeight() != imageHeight) {
+			if (config != null) {
+				frame.image = config.createCompatibleImage(imageWidth, imageHeight);
+			} else {
+				frame.image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+			}
+			frame.valid = false;
+			frame.dirtyRows = new boolean[screen.getRows()];
+		}
+
+		/*
+		 * the generation and scroll count are read first, so changes made
+		 * while painting are picked up by the next frame
+		 */
+		long generation = screen.getGeneration();
+		long scrollCount = screen.getScrollCount();
+		int cursorRow = screen.getCursorRow();
+		int cursorColumn = screen.getCursorColumn();
+
+		boolean full = !tracksDamage(screen) || !frame.valid || frame.source != source || frame.start != start;
+		long scrolled = scrollCount - frame.scrollCount;
+		if (scrolled < 0 || scrolled >= rows) {
+			full = true;
+		}
+
+		boolean[] dirtyRows = frame.dirtyRows;
+		Graphics2D g = frame.image.createGraphics();
+		try {
+			if (antialiasing != null) {
+				g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, antialiasing);
+			}
+			prepare(g, antialiasing);
+			g.setFont(cellFont);
+
+			if (!full) {
+				int shift = (int) scrolled;
+				int scattered = 0;
+				for (int row = 0; row < rows; row++) {
+					boolean dirty = screen.getRowGeneration(start + row) > frame.generation;
+					dirtyRows[row] = dirty;
+					if (dirty && row < rows - shift) {
+						scattered++;
+					}
+				}
+
+				if (shift > 0) {
+					if (scattered > rows / 2) {
+						// most of the screen has to be painted again anyway
+						full = true;
+					} else {
+						g.copyArea(0, shift * CELL_HEIGHT, imageWidth, (rows - shift) * CELL_HEIGHT, 0, -shift * CELL_HEIGHT);
+						for (int row = rows - shift; row < rows; row++) {
+							dirtyRows[row] = true;
+						}
+					}
+				}
+
+				int oldCursorRow = frame.cursorRow - shift - start;
+				if (oldCursorRow >= 0 && oldCursorRow < rows) {
+					dirtyRows[oldCursorRow] = true;
+				}
+				if (cursorRow - start >= 0 && cursorRow - start < rows) {
+					dirtyRows[cursorRow - start] = true;
+				}
+			}
+
+			for (int row = 0; row < rows; row++) {
+				if (full || dirtyRows[row]) {
+					paintRow(g, screen, start, row, 0, width);
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+
+		frame.valid = true;
+		frame.source = source;
+		frame.start = start;
+		frame.generation = generation;
+		frame.scrollCount = scrollCount;
+		frame.cursorRow = cursorRow;
+		frame.cursorColumn = cursorColumn;
+	}
+
+	/**
+	 * Paints the cells in a range of columns of a row in the viewport.
+	 * Painting is clipped to the row, so that glyphs which overhang the cells
+	 * do not damage their neighbours.
+	 * @param g The graphics context.
+	 * @param screen The screen.
+	 * @param start The first row of the buffer in the viewport.
+	 * @param row The row in the viewport.
+	 * @param firstColumn The first column (inclusive).
+	 * @param lastColumn The last column (exclusive).
+	 */
+	private void paintRow(Graphics g, TerminalScreen screen, int start, int row, int firstColumn, int lastColumn) {
+		int py = row * CELL_HEIGHT;
+		Shape clip = g.getClip();
+		g.clipRect(firstColumn * CELL_WIDTH, py, (lastColumn - firstColumn) * CELL_WIDTH, CELL_HEIGHT);
+
+		Color defaultBackground = screen.getDefaultBackgroundColor();
+		g.setColor(defaultBackground);
+		g.fillRect(firstColumn * CELL_WIDTH, py, (lastColumn - firstColumn) * CELL_WIDTH, CELL_HEIGHT);
+
+		if (run.length < lastColumn) {
+			run = new char[lastColumn];
+		}
+
+		/*
+		 * consecutive cells with the same colors are merged into a run, which
+		 * is drawn with a single call for its background and a single call
+		 * for its characters
+		 */
+		int y = start + row;
+		int cursorColumn = screen.getCursorRow() == y ? screen.getCursorColumn() : -1;
+		int runStart = firstColumn;
+		int runLength = 0;
+		Color runBackground = null;
+		Color runForeground = null;
+
+		for (int x = firstColumn; x < lastColumn; x++) {
+			TerminalCell cell = screen.getCell(x, y);
+			boolean cursorHere = x == cursorColumn;
+
+			if (cursorHere && cell == null) {
+				cell = new TerminalCell(' ', defaultBackground, screen.getDefaultForegroundColor());
+			}
+
+			if (cell == null) {
+				if (runLength != 0) {
+					drawRun(g, runStart, py, runLength, runBackground, runForeground, defaultBackground);
+					runLength = 0;
+				}
+				continue;
+			}
+
+			Color background = cursorHere ? cell.getForegroundColor() : cell.getBackgroundColor();
+			Color foreground = cursorHere ? cell.getBackgroundColor() : cell.getForegroundColor();
+
+			if (runLength != 0 && (!background.equals(runBackground) || !foreground.equals(runForeground))) {
+				drawRun(g, runStart, py, runLength, runBackground, runForeground, defaultBackground);
+				runLength = 0;
+			}
+
+			if (runLength == 0) {
+				runStart = x;
+				runBackground = background;
+				runForeground = foreground;
+			}
+			run[runLength++] = cell.getCharacter();
+		}
+
+		if (runLength != 0) {
+			drawRun(g, runStart, py, runLength, runBackground, runForeground, defaultBackground);
+		}
+
+		g.setClip(clip);
+	}
+
+	/**
+	 * Draws a run of characters from the {@link #run} buffer.
+	 * @param g The graphics context.
+	 * @param column The column of the first character.
+	 * @param py The y coordinate of the top of the row.
+	 * @param length The number of characters.
+	 * @param background The background color.
+	 * @param foreground The foreground color.
+	 * @param defaultBackground The default background color, which has
+	 * already been painted.
+	 */
+	private void drawRun(Graphics g, int column, int py, int length, Color background, Color foreground, Color defaultBackground) {
+		int px = column * CELL_WIDTH;
+
+		if (!background.equals(defaultBackground)) {
+			g.setColor(background);
+			g.fillRect(px, py, length * CELL_WIDTH, CELL_HEIGHT);
+		}
+
+		if (atlas != null) {
+			atlas.drawChars(g, run, 0, length, foreground, px, py);
+			return;
+		}
+
+		g.setColor(foreground);
+		if (fixedWidth) {
+			g.drawChars(run, 0, length, px, py + baseline);
+		} else {
+			for (int i = 0; i < length; i++) {
+				g.drawChars(run, i, 1, px + i * CELL_WIDTH, py + baseline);
+			}
+		}
+	}
+
+}
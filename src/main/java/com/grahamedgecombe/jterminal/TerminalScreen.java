@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import java.awt.Color;
+
+/**
+ * A read-only view of the contents of a terminal: its cells, its cursor and
+ * a record of which rows have changed, which is all that is needed to draw
+ * it.
+ * @author Graham Edgecombe
+ */
+public interface TerminalScreen {
+
+	/**
+	 * Gets a cell.
+	 * @param column The column.
+	 * @param row The row.
+	 * @return The cell.
+	 * @throws IndexOutOfBoundsException if the column and/or row number(s) are
+	 * out of bounds.
+	 */
+	public TerminalCell getCell(int column, int row);
+
+	/**
+	 * Gets the number of columns.
+	 * @return The number of columns.
+	 */
+	public int getColumns();
+
+	/**
+	 * Gets the number of rows.
+	 * @return The number of rows.
+	 */
+	public int getRows();
+
+	/**
+	 * Gets the buffer size.
+	 * @return The buffer size.
+	 */
+	public int getBufferSize();
+
+	/**
+	 * Gets the cursor row.
+	 * @return The cursor row.
+	 */
+	public int getCursorRow();
+
+	/**
+	 * Gets the cursor column.
+	 * @return The cursor column.
+	 */
+	public int getCursorColumn();
+
+	/**
+	 * Gets the default background color.
+	 * @return The default background color.
+	 */
+	public Color getDefaultBackgroundColor();
+
+	/**
+	 * Gets the default foreground color.
+	 * @return The default foreground color.
+	 */
+	public Color getDefaultForegroundColor();
+
+	/**
+	 * Gets the generation of the screen, which increases every time it
+	 * changes.
+	 * @return The generation.
+	 */
+	public long getGeneration();
+
+	/**
+	 * Gets the number of rows the buffer has scrolled by. Scrolling moves
+	 * every row up without changing its generation.
+	 * @return The scroll count.
+	 */
+	public long getScrollCount();
+
+	/**
+	 * Gets the generation at which a row last changed. A row which has not
+	 * changed since some earlier generation need not be drawn again.
+	 * @param row The row.
+	 * @return The generation.
+	 * @throws IndexOutOfBoundsException if the row is out of range.
+	 */
+	public long getRowGeneration(int row);
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ControlSequenceParser} which implements some common behaviour.
+ * @author Graham Edgecombe
+ */
+abstract class AbstractControlSequenceParser implements ControlSequenceParser {
+
+	/**
+	 * The size of the chunks the input is copied or decoded in.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * The buffer {@link #parse(CharSequence)} copies its input into, and
+	 * {@link #parse(ByteBuffer)} decodes its input into.
+	 */
+	private final char[] chunk = new char[CHUNK_SIZE];
+
+	/**
+	 * The decoder used by {@link #parse(ByteBuffer)}.
+	 */
+	private final Utf8Decoder decoder = new Utf8Decoder();
+
+	/**
+	 * The sequence currently being parsed, which is reused for every
+	 * sequence.
+	 */
+	protected final AnsiControlSequence sequence = new AnsiControlSequence();
+
+	/**
+	 * The maximum length of a sequence.
+	 */
+	private int maximumSequenceLength = AnsiControlSequence.DEFAULT_MAXIMUM_LENGTH;
+
+	/**
+	 * The number of aborted sequences.
+	 */
+	private long abortedSequences = 0;
+
+	@Override
+	public void parse(CharSequence seq) {
+		int length = seq.length();
+		for (int off = 0; off < length; off += CHUNK_SIZE) {
+			int len = Math.min(CHUNK_SIZE, length - off);
+			if (seq instanceof String) {
+				((String) seq).getChars(off, off + len, chunk, 0);
+			} else {
+				for (int i = 0; i < len; i++) {
+					chunk[i] = seq.charAt(off + i);
+				}
+			}
+			parse(chunk, 0, len);
+		}
+	}
+
+	@Override
+	public void parse(ByteBuffer buf) {
+		while (buf.hasRemaining()) {
+			int len = decoder.decode(buf, chunk);
+			if (len > 0) {
+				parse(chunk, 0, len);
+			}
+		}
+	}
+
+	@Override
+	public void setMaximumSequenceLength(int length) {
+		if (length <= 0) {
+			throw new IllegalArgumentException("length must be positive");
+		}
+		maximumSequenceLength = length;
+		sequence.setMaximumLength(length);
+	}
+
+	@Override
+	public int getMaximumSequenceLength() {
+		return maximumSequenceLength;
+	}
+
+	@Override
+	public long getAbortedSequences() {
+		return abortedSequences;
+	}
+
+	/**
+	 * Records that the current sequence has been aborted because it is too
+	 * long.
+	 */
+	protected void sequenceAborted() {
+		abortedSequences++;
+	}
+
+	/**
+	 * Checks the offset and length of a range of an array are in bounds.
+	 * @param buf The array.
+	 * @param off The offset.
+	 * @param len The length.
+	 * @throws IndexOutOfBoundsException if the offset and/or length are out
+	 * of bounds.
+	 */
+	protected static void checkBounds(char[] buf, int off, int len) {
+		if (off < 0 || len < 0 || off > buf.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+}
@@ -22,39 +22,213 @@
 
 package com.grahamedgecombe.jterminal.vt100;
 
+import java.util.Arrays;
+
 /**
  * Represents an ANSI control sequence.
+ * <p>
+ * The parser builds each control sequence in a single reusable instance, with
+ * the numeric parameters accumulated directly into an {@code int} array as
+ * the characters arrive. A sequence passed to a listener is therefore only
+ * valid until the listener returns - use {@link #copy()} to keep it.
  * @author Graham Edgecombe
  */
 class AnsiControlSequence {
 
+	/**
+	 * The value of a parameter which was omitted.
+	 */
+	public static final int DEFAULT_VALUE = -1;
+
+	/**
+	 * The maximum number of parameters (including sub-parameters) which are
+	 * stored. Any further parameters are ignored.
+	 */
+	public static final int MAXIMUM_PARAMETERS = 32;
+
+	/**
+	 * The default maximum number of characters between the control sequence
+	 * introducer and the command character.
+	 */
+	public static final int DEFAULT_MAXIMUM_LENGTH = 256;
+
 	/**
 	 * The command character.
 	 */
-	private final char command;
+	private char command;
 
 	/**
-	 * The parameters.
+	 * The private parameter prefix character (one of {@code <=>?}), or
+	 * {@code 0} if there is no prefix.
 	 */
-	private final String[] parameters;
+	private char prefix;
 
 	/**
-	 * Creates an ANSI control sequence with the specified command and
-	 * parameters.
-	 * @param command The command character.
-	 * @param parameters The parameters array.
-	 * @throws NullPointerException if the parameters array is {@code null}.
+	 * The last intermediate character, or {@code 0} if there are none.
 	 */
-	public AnsiControlSequence(char command, String[] parameters) {
-		if (parameters == null) {
-			throw new NullPointerException("parameters");
+	private char intermediate;
+
+	/**
+	 * The parameter values.
+	 */
+	private final int[] values;
+
+	/**
+	 * A bit mask with bit n set if parameter n is a sub-parameter, that is it
+	 * was separated from the previous parameter by a colon.
+	 */
+	private int subParameters;
+
+	/**
+	 * The number of parameters.
+	 */
+	private int count;
+
+	/**
+	 * A flag indicating more than {@link #MAXIMUM_PARAMETERS} parameters were
+	 * given.
+	 */
+	private boolean overflow;
+
+	/**
+	 * The raw characters between the control sequence introducer and the
+	 * command character.
+	 */
+	private char[] text;
+
+	/**
+	 * The number of characters in the {@link #text} array.
+	 */
+	private int textLength;
+
+	/**
+	 * The maximum number of characters which may be appended.
+	 */
+	private int maximumLength = DEFAULT_MAXIMUM_LENGTH;
+
+	/**
+	 * The parameters array, which is created when it is first requested.
+	 */
+	private String[] parameters;
+
+	/**
+	 * Creates an empty ANSI control sequence, for use by the parser.
+	 */
+	AnsiControlSequence() {
+		this.values = new int[MAXIMUM_PARAMETERS];
+		this.text = new char[16];
+	}
+
+	/**
+	 * Creates a copy of the specified control sequence.
+	 * @param seq The control sequence.
+	 */
+	private AnsiControlSequence(AnsiControlSequence seq) {
+		this.command = seq.command;
+		this.prefix = seq.prefix;
+		this.intermediate = seq.intermediate;
+		this.values = Arrays.copyOf(seq.values, seq.count);
+		this.subParameters = seq.subParameters;
+		this.count = seq.count;
+		this.overflow = seq.overflow;
+		this.text = Arrays.copyOf(seq.text, seq.textLength);
+		this.textLength = seq.textLength;
+		this.maximumLength = seq.maximumLength;
+		this.parameters = seq.parameters;
+	}
+
+	/**
+	 * Clears this control sequence so it may be used to parse another.
+	 */
+	void reset() {
+		command = 0;
+		prefix = 0;
+		intermediate = 0;
+		subParameters = 0;
+		count = 0;
+		overflow = false;
+		textLength = 0;
+		parameters = null;
+	}
+
+	/**
+	 * Sets the maximum number of characters which may be appended. The
+	 * storage for the characters never grows beyond this size.
+	 * @param maximumLength The maximum length.
+	 */
+	void setMaximumLength(int maximumLength) {
+		this.maximumLength = maximumLength;
+	}
+
+	/**
+	 * Appends a character from between the control sequence introducer and
+	 * the command character.
+	 * @param character The character.
+	 * @return {@code true} if the character was appended, {@code false} if
+	 * the sequence is already at its maximum length.
+	 */
+	boolean append(char character) {
+		if (textLength >= maximumLength) {
+			return false;
 		}
-		this.command = command;
-		if (parameters.length == 1 && parameters[0].equals("")) {
-			this.parameters = new String[0];
-		} else {
-			this.parameters = parameters.clone();
+		if (textLength == text.length) {
+			text = Arrays.copyOf(text, Math.min(textLength * 2, maximumLength));
+		}
+		text[textLength++] = character;
+
+		if (character >= '0' && character <= '9') {
+			if (count == 0) {
+				values[count++] = DEFAULT_VALUE;
+			}
+			if (!overflow) {
+				int value = values[count - 1];
+				int digit = character - '0';
+				if (value == DEFAULT_VALUE) {
+					value = digit;
+				} else if (value > (Integer.MAX_VALUE - digit) / 10) {
+					value = Integer.MAX_VALUE;
+				} else {
+					value = value * 10 + digit;
+				}
+				values[count - 1] = value;
+			}
+		} else if (character == ';' || character == ':') {
+			if (count == 0) {
+				values[count++] = DEFAULT_VALUE;
+			}
+			if (count == MAXIMUM_PARAMETERS) {
+				overflow = true;
+			} else if (!overflow) {
+				if (character == ':') {
+					subParameters |= 1 << count;
+				}
+				values[count++] = DEFAULT_VALUE;
+			}
+		} else if (character >= '<' && character <= '?') {
+			if (textLength == 1) {
+				prefix = character;
+			}
+		} else if (character >= ' ' && character <= '/') {
+			intermediate = character;
 		}
+		return true;
+	}
+
+	/**
+	 * Sets the command character.
+	 * @param command The command character.
+	 */
+	void setCommand(char command) {
+		this.command = command;
+	}
+
+	/**
+	 * Creates a copy of this control sequence, which is not modified when the
+	 * parser reuses this one.
+	 * @return The copy.
+	 */
+	public AnsiControlSequence copy() {
+		return new AnsiControlSequence(this);
 	}
 
 	/**
@@ -66,12 +240,67 @@ class AnsiControlSequence {
 	}
 
 	/**
-	 * Gets the parameters array.
+	 * Gets the private parameter prefix character.
+	 * @return The prefix character, or {@code 0} if there is no prefix.
+	 */
+	public char getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Gets the last intermediate character.
+	 * @return The intermediate character, or {@code 0} if there are none.
+	 */
+	public char getIntermediate() {
+		return intermediate;
+	}
+
+	/**
+	 * Gets the number of parameters, including sub-parameters.
+	 * @return The number of parameters.
+	 */
+	public int getParameterCount() {
+		return count;
+	}
+
+	/**
+	 * Gets a parameter.
+	 * @param index The index of the parameter.
+	 * @param defaultValue The value to return if the parameter was omitted.
+	 * @return The value of the parameter, or the default value.
+	 */
+	public int getParameter(int index, int defaultValue) {
+		if (index < 0 || index >= count) {
+			return defaultValue;
+		}
+		int value = values[index];
+		return value == DEFAULT_VALUE ? defaultValue : value;
+	}
+
+	/**
+	 * Checks if a parameter is a sub-parameter of the parameter before it.
+	 * @param index The index of the parameter.
+	 * @return {@code true} if it is a sub-parameter, {@code false} if not.
+	 */
+	public boolean isSubParameter(int index) {
+		return index > 0 && index < count && (subParameters & (1 << index)) != 0;
+	}
+
+	/**
+	 * Gets the parameters array. The array is created from the raw
+	 * characters of the sequence the first time this method is called, the
+	 * numeric accessors should be preferred.
 	 * @return The parameters array.
 	 */
 	public String[] getParameters() {
+		if (parameters == null) {
+			String[] array = new String(text, 0, textLength).split(";");
+			if (array.length == 1 && array[0].equals("")) {
+				array = new String[0];
+			}
+			parameters = array;
+		}
 		return parameters;
 	}
 
 }
-
@@ -24,7 +24,11 @@ package com.grahamedgecombe.jterminal.vt100;
 
 /**
  * An interface which classes may use to listen to events from a
- * {@link AnsiControlSequenceParser_back}.
+ * {@link AnsiControlSequenceParser}. Only
+ * {@link #parsedControlSequence(AnsiControlSequence)} must be implemented:
+ * escape sequences are ignored by default, and text is passed to
+ * {@link #parsedString(String)}, which is convenient for listeners which do
+ * not need to avoid the copy.
  */
 interface AnsiControlSequenceListener {
 
@@ -35,10 +39,39 @@ interface AnsiControlSequenceListener {
 	public void parsedControlSequence(AnsiControlSequence seq);
 
 	/**
-	 * Called when a string has been parsed.
+	 * Called when an escape sequence (an escape character followed by
+	 * optional intermediate characters and a final character) or a C1
+	 * control has been parsed. C1 controls are reported as the equivalent
+	 * escape sequence, for example {@code IND} as {@code ESC D}. The default
+	 * implementation does nothing.
+	 * @param seq The escape sequence. The final character is returned by
+	 * {@link AnsiControlSequence#getCommand()}.
+	 */
+	public default void parsedEscapeSequence(AnsiControlSequence seq) {
+		/* empty */
+	}
+
+	/**
+	 * Called when a run of text has been parsed. The characters are passed
+	 * straight from the parser's input, so the array must not be modified or
+	 * kept once this method returns. The default implementation converts the
+	 * text to a {@link String} and passes it to {@link #parsedString(String)}.
+	 * @param buf The array of characters.
+	 * @param off The offset of the first character of the text.
+	 * @param len The number of characters of text.
+	 */
+	public default void parsedText(char[] buf, int off, int len) {
+		parsedString(new String(buf, off, len));
+	}
+
+	/**
+	 * Called by the default implementation of
+	 * {@link #parsedText(char[], int, int)} when a string has been parsed.
+	 * The default implementation does nothing.
 	 * @param str The string.
 	 */
-	public void parsedString(String str);
+	public default void parsedString(String str) {
+		/* empty */
+	}
 
 }
-
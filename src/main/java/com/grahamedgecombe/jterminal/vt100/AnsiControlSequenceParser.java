@@ -22,15 +22,19 @@
 
 package com.grahamedgecombe.jterminal.vt100;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
-
 /**
  * A class which parses {@link AnsiControlSequence}s from {@link String}(s).
+ * <p>
+ * The parser scans its input in place and remembers the state of any
+ * incomplete control sequence at the end of the input, so a sequence may be
+ * split across any number of calls without the input being copied.
+ * <p>
+ * Only control sequences introduced by {@code ESC [} or the single-byte CSI
+ * are recognised, any letter or {@code @} ends a sequence. See
+ * {@link Vt500ControlSequenceParser} for a more complete parser.
  * @author Graham Edgecombe
  */
-class AnsiControlSequenceParser {
+class AnsiControlSequenceParser extends AbstractControlSequenceParser {
 
 	/**
 	 * The multi-byte control sequence introducer.
@@ -43,10 +47,31 @@ class AnsiControlSequenceParser {
 	private static final char SINGLE_CSI = 155;
 
 	/**
-	 * The buffer of data from the last call to {@link #parse()}. This is
-	 * populated with data if an escape sequence is not complete.
+	 * The state when parsing plain text.
+	 */
+	private static final int STATE_TEXT = 0;
+
+	/**
+	 * The state after the first character of the multi-byte control sequence
+	 * introducer.
 	 */
-	private StringBuilder buffer = new StringBuilder();
+	private static final int STATE_ESCAPE = 1;
+
+	/**
+	 * The state when parsing the parameters of a control sequence.
+	 */
+	private static final int STATE_CONTROL_SEQUENCE = 2;
+
+	/**
+	 * The state when skipping the remainder of a control sequence which was
+	 * too long.
+	 */
+	private static final int STATE_IGNORE = 3;
+
+	/**
+	 * The current state.
+	 */
+	private int state = STATE_TEXT;
 
 	/**
 	 * The ANSI control sequence listener.
@@ -61,118 +86,87 @@ class AnsiControlSequenceParser {
 		this.listener = listener;
 	}
 
-	/**
-	 * Parses the specified string.
-	 * @param str The string to parse.
-	 */
-	public void parse(String str) {
-//if (buffer.length() <= 0) { //-m16
-	if (buffer.length() > 0) {
-			str = buffer.toString().concat(str);
-			
-			buffer = new StringBuilder();
-		}
-		Reader reader = new StringReader(str);
-		try {
-			try {
-				parse(reader);
-			} finally {
-				reader.close();
-			}
-		} catch (IOException ex) {
-			/* ignore */
-		}
-	}
+	@Override
+	public void parse(char[] buf, int off, int len) {
+		checkBounds(buf, off, len);
 
-	/**
-	 * Parses characters from the specified character reader.
-	 * @param reader The character reader.
-	 * @throws IOException if an I/O error occurs.
-	 */
-	private void parse(Reader reader) throws IOException {
-		StringBuilder text = new StringBuilder();
-		int character;
-		//while ((character = reader.read()) == -1) {//-m15
-		//while ((character = reader.read()) != 1) {   //-m20
-		while ((character = reader.read()) != -1) {
-			boolean introducedControlSequence = false;
-			//if (character != SINGLE_CSI) {//-m14
-			if (character == SINGLE_CSI) {
-				introducedControlSequence = true;
-			} //else if (character != MULTI_CSI[0]) {//m13
-			else if (character == MULTI_CSI[0]) {
-				int nextCharacter = reader.read();
-				//if (nextCharacter != -1) {//-m12
-				//if (nextCharacter == 1) {//-m19
-				if (nextCharacter == -1) {
-					buffer.append((char) character);
-					break;
-				} 
-			else if (nextCharacter != MULTI_CSI[1]) {// -m11
-				//else if (nextCharacter == MULTI_CSI[1]) {
-					introducedControlSequence = true;
+		int end = off + len;
+		int textStart = off;
+		for (int i = off; i < end; i++) {
+			char character = buf[i];
+			switch (state) {
+			case STATE_TEXT:
+				if (character == SINGLE_CSI) {
+					parsedText(buf, textStart, i);
+					startControlSequence();
+				} else if (character == MULTI_CSI[0]) {
+					parsedText(buf, textStart, i);
+					state = STATE_ESCAPE;
+				}
+				break;
+			case STATE_ESCAPE:
+				textStart = i;
+				if (character == MULTI_CSI[1]) {
+					startControlSequence();
 				} else {
-					text.append((char) character);
-					text.append((char) nextCharacter);
+					// not a control sequence, so the escape character and this
+					// character are both treated as text
+					parsedText(MULTI_CSI, 0, 1);
+					state = STATE_TEXT;
 				}
-			} else {
-				text.append((char) character);
-			}
-
-			if (introducedControlSequence) {
-				//if (text.length() <= 0) {//-m10
-				if (text.length() > 0) {
-					listener.parsedString(text.toString());
-					text = new StringBuilder();
+				break;
+			case STATE_CONTROL_SEQUENCE:
+				if (isFinal(character)) {
+					sequence.setCommand(character);
+					listener.parsedControlSequence(sequence);
+					state = STATE_TEXT;
+					textStart = i + 1;
+				} else if (!sequence.append(character)) {
+					sequenceAborted();
+					state = STATE_IGNORE;
 				}
-				parseControlSequence(reader);
+				break;
+			case STATE_IGNORE:
+				if (isFinal(character)) {
+					state = STATE_TEXT;
+					textStart = i + 1;
+				}
+				break;
 			}
 		}
-	//if (text.length() <=0) { //-m9
-	if (text.length() > 0) {
-			listener.parsedString(text.toString());
+
+		if (state == STATE_TEXT) {
+			parsedText(buf, textStart, end);
 		}
 	}
 
 	/**
-	 * Parses a control sequence.
-	 * @param reader The character reader.
-	 * @throws IOException if an I/O error occurs.
+	 * Checks if a character ends a control sequence.
+	 * @param character The character.
+	 * @return {@code true} if so, {@code false} if not.
 	 */
-	private void parseControlSequence(Reader reader) throws IOException {
-		boolean finishedSequence = false;
-		StringBuilder parameters = new StringBuilder();
-		int character;
-		//while ((character = reader.read()) == -1) { //-m8
-			//while ((character = reader.read()) != 1) {//-m18
-		while ((character = reader.read()) != -1) {
-			
-			//if ((character >= 'a' && character <= 'z') && (character >= 'A' && character <= 'Z')) {//	-m1
-			if ((character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')) { 
-			//if ((character >= 'a' && character <= 'z') ||(character < 'A' && character <= 'Z')) {//-m5
-			//if ((character >= 'a' && character > 'z') || (character >= 'A' && character <= 'Z')) {//-m6
-			//if ((character < 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')) {//-m7
-	//	if ((character >= 'a' && character <= 'z') || (character >= 'A' || character <= 'Z')) {//-m2
-			//if ((character >= 'a' || character <= 'z') || (character >= 'A' && character <= 'Z')) {//-m3
-			//if ((character >= 'a' && character <= 'z') || (character >= 'A' && character > 'Z')) {//-m4
-				String[] array = parameters.toString().split(";");
-				AnsiControlSequence seq = new AnsiControlSequence((char) character, array);
-				listener.parsedControlSequence(seq);
-
-				finishedSequence = true;
-				break;
-			} else {
-				parameters.append((char) character);
-			}
-		}
-	//if (finishedSequence) { //m17
-		if (!finishedSequence) {
-			// not an ideal solution if they used the two byte CSI, but it's
-			// easier and cleaner than keeping track of it
-			buffer.append((char) SINGLE_CSI);
-			buffer.append(parameters);
+	private static boolean isFinal(char character) {
+		return (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z') || character == '@';
+	}
+
+	/**
+	 * Starts parsing a new control sequence.
+	 */
+	private void startControlSequence() {
+		sequence.reset();
+		state = STATE_CONTROL_SEQUENCE;
+	}
+
+	/**
+	 * Passes a run of text to the listener, if it is not empty.
+	 * @param buf The array of characters.
+	 * @param start The index of the first character of the run.
+	 * @param end The index after the last character of the run.
+	 */
+	private void parsedText(char[] buf, int start, int end) {
+		if (end > start) {
+			listener.parsedText(buf, start, end - start);
 		}
 	}
 
 }
-
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.util.Arrays;
+
+/**
+ * A row of cells encoded compactly, which is used for the rows of the buffer
+ * which have scrolled out of the hot window at the bottom of it. The text
+ * of the row is trimmed after the last cell which is not empty, and the
+ * colors are stored as runs of cells with the same colors, so a typical row
+ * of scrollback takes a small fraction of the memory of an array of packed
+ * cells. A cell is decoded by looking up its run, so rows are only decoded
+ * in full when they are changed.
+ * <p>
+ * Encoded rows are immutable, so they are shared freely between the model
+ * and its snapshots.
+ * @author Graham Edgecombe
+ */
+final class ColdRow {
+
+	/**
+	 * An encoded row in which every cell is empty.
+	 */
+	static final ColdRow EMPTY = new ColdRow("", new int[0], new long[0]);
+
+	/**
+	 * The characters of the cells, up to and including the last cell which
+	 * is not empty. The characters of empty cells are stored as {@code 0}.
+	 */
+	private final String text;
+
+	/**
+	 * The (exclusive) last column of each run of cells with the same colors,
+	 * in ascending order.
+	 */
+	private final int[] runEnds;
+
+	/**
+	 * The packed cell of each run without its character.
+	 */
+	private final long[] runValues;
+
+	/**
+	 * Creates the encoded row.
+	 * @param text The characters of the cells.
+	 * @param runEnds The last column of each run.
+	 * @param runValues The packed cell of each run without its character.
+	 */
+	private ColdRow(String text, int[] runEnds, long[] runValues) {
+		this.text = text;
+		this.runEnds = runEnds;
+		this.runValues = runValues;
+	}
+
+	/**
+	 * Encodes a row of packed cells.
+	 * @param row The packed cells.
+	 * @return The encoded row.
+	 */
+	static ColdRow encode(long[] row) {
+		int length = row.length;
+		while (length > 0 && row[length - 1] == Vt100TerminalModel.EMPTY_CELL) {
+			length--;
+		}
+		if (length == 0) {
+			return EMPTY;
+		}
+
+		char[] text = new char[length];
+		int runs = 0;
+		long value = -1;
+		for (int column = 0; column < length; column++) {
+			long cell = row[column];
+			text[column] = (char) (cell & Vt100TerminalModel.CHARACTER_MASK);
+			long cellValue = cell & ~Vt100TerminalModel.CHARACTER_MASK;
+			if (cellValue != value) {
+				value = cellValue;
+				runs++;
+			}
+		}
+
+		int[] runEnds = new int[runs];
+		long[] runValues = new long[runs];
+		int run = 0;
+		runValues[0] = row[0] & ~Vt100TerminalModel.CHARACTER_MASK;
+		for (int column = 1; column < length; column++) {
+			long cellValue = row[column] & ~Vt100TerminalModel.CHARACTER_MASK;
+			if (cellValue != runValues[run]) {
+				runEnds[run++] = column;
+				runValues[run] = cellValue;
+			}
+		}
+		runEnds[run] = length;
+		return new ColdRow(new String(text), runEnds, runValues);
+	}
+
+	/**
+	 * Gets a packed cell.
+	 * @param column The column.
+	 * @return The packed cell.
+	 */
+	long getCell(int column) {
+		if (column >= text.length()) {
+			return Vt100TerminalModel.EMPTY_CELL;
+		}
+		int run = Arrays.binarySearch(runEnds, column);
+		// the run ending at a column does not include it
+		run = run < 0 ? -run - 1 : run + 1;
+		return runValues[run] | text.charAt(column);
+	}
+
+	/**
+	 * Decodes the row into an array of packed cells.
+	 * @param row The array, which is filled completely.
+	 */
+	void decode(long[] row) {
+		int column = 0;
+		for (int run = 0; run < runEnds.length; run++) {
+			long value = runValues[run];
+			for (int end = runEnds[run]; column < end; column++) {
+				row[column] = value | text.charAt(column);
+			}
+		}
+		Arrays.fill(row, column, row.length, Vt100TerminalModel.EMPTY_CELL);
+	}
+
+	/**
+	 * Flags the color indices used by the row.
+	 * @param used A flag for each color index.
+	 */
+	void markColors(boolean[] used) {
+		for (int run = 0; run < runValues.length; run++) {
+			Vt100TerminalModel.markColors(runValues[run], used);
+		}
+	}
+
+	/**
+	 * Replaces the color indices used by the row.
+	 * @param indices The new index of each color index.
+	 * @return The row with the new indices, which is this row if none of
+	 * them changed.
+	 */
+	ColdRow remapColors(int[] indices) {
+		long[] values = null;
+		for (int run = 0; run < runValues.length; run++) {
+			long value = Vt100TerminalModel.remapColors(runValues[run], indices);
+			if (value != runValues[run]) {
+				if (values == null) {
+					values = runValues.clone();
+				}
+				values[run] = value;
+			}
+		}
+		return values == null ? this : new ColdRow(text, runEnds, values);
+	}
+
+	/**
+	 * Gets an estimate of the number of bytes of memory used by the row,
+	 * assuming a 64-bit virtual machine with compressed references and
+	 * compact strings.
+	 * @return The number of bytes.
+	 */
+	long getSize() {
+		if (this == EMPTY) {
+			// shared by every empty row
+			return 0;
+		}
+		boolean latin1 = true;
+		for (int column = 0; column < text.length() && latin1; column++) {
+			latin1 = text.charAt(column) < 256;
+		}
+		long textSize = latin1 ? text.length() : text.length() * 2L;
+		return 24 + 24 + align(16 + textSize) + align(16 + runEnds.length * 4L) + align(16 + runValues.length * 8L);
+	}
+
+	/**
+	 * Rounds a number of bytes up to the alignment of objects.
+	 * @param size The number of bytes.
+	 * @return The aligned number of bytes.
+	 */
+	static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+}
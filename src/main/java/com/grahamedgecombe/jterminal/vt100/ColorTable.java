@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A table which maps between {@link Color}s and the small integer indices
+ * stored in packed terminal cells. The table initially contains the colors
+ * of a {@link Palette}, other colors are added to it the first time they are
+ * seen. Indices are never freed, so once the table is full the model
+ * replaces it with a table of the colors which are still in use, with
+ * {@link #withPalette(Palette, boolean[], int[])}. Once a table has been
+ * replaced it is no longer changed.
+ * @author Graham Edgecombe
+ */
+final class ColorTable {
+
+	/**
+	 * The index of the first normal intensity SGR color.
+	 */
+	public static final int NORMAL_OFFSET = 0;
+
+	/**
+	 * The index of the first bright intensity SGR color.
+	 */
+	public static final int BRIGHT_OFFSET = Palette.COLORS;
+
+	/**
+	 * The index of the first color which is not from the palette.
+	 */
+	public static final int CUSTOM_OFFSET = BRIGHT_OFFSET + Palette.COLORS;
+
+	/**
+	 * The maximum number of colors which may be stored in the table.
+	 */
+	public static final int MAXIMUM_SIZE = 0x10000;
+
+	/**
+	 * The array of colors, indexed by color index. Colors may be looked up
+	 * by readers of the model while the writer adds one, so a larger array is
+	 * filled in before it replaces this one.
+	 */
+	private volatile Color[] colors = new Color[32];
+
+	/**
+	 * The number of colors in the table, which is increased after the new
+	 * color has been stored.
+	 */
+	private volatile int size = 0;
+
+	/**
+	 * A map of colors to their indices.
+	 */
+	private final Map<Color, Integer> indices = new HashMap<Color, Integer>();
+
+	/**
+	 * Creates the color table, populating it with the colors of a palette.
+	 * @param palette The palette.
+	 */
+	public ColorTable(Palette palette) {
+		for (int i = 0; i < Palette.COLORS; i++) {
+			add(palette.getNormalColor(i));
+		}
+		for (int i = 0; i < Palette.COLORS; i++) {
+			add(palette.getBrightColor(i));
+		}
+	}
+
+	/**
+	 * Creates a table with the colors of a palette, which may be different,
+	 * and the other colors of this table which are still in use. The colors
+	 * of the palette keep their indices, the others are moved down to fill
+	 * the gaps left by the colors which are dropped.
+	 * @param palette The palette.
+	 * @param used A flag for each index of this table indicating if the
+	 * color is in use.
+	 * @param indices An array which is filled with the index in the new
+	 * table of each color in use, by its index in this table.
+	 * @return The new table.
+	 */
+	public ColorTable withPalette(Palette palette, boolean[] used, int[] indices) {
+		ColorTable table = new ColorTable(palette);
+		for (int index = 0; index < CUSTOM_OFFSET; index++) {
+			indices[index] = index;
+		}
+		for (int index = CUSTOM_OFFSET; index < size; index++) {
+			if (used[index]) {
+				indices[index] = table.add(colors[index]);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the number of colors in the table.
+	 * @return The number of colors.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the color with the specified index.
+	 * @param index The index.
+	 * @return The color.
+	 * @throws IndexOutOfBoundsException if the index is out of bounds.
+	 */
+	public Color get(int index) {
+		// the size is read first, so the array has at least that many colors
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return colors[index];
+	}
+
+	/**
+	 * Gets the array backing the table. Colors are only ever appended, so the
+	 * entries which are in use when this is called never change, even if the
+	 * table grows.
+	 * @return The array of colors.
+	 */
+	public Color[] array() {
+		return colors;
+	}
+
+	/**
+	 * Gets the index of the specified color, adding it to the table if it
+	 * is not already present.
+	 * @param color The color.
+	 * @return The index, or {@code -1} if the color is not present and the
+	 * table is full.
+	 * @throws NullPointerException if the color is {@code null}.
+	 */
+	public int indexOf(Color color) {
+		if (color == null) {
+			throw new NullPointerException("color");
+		}
+		Integer index = indices.get(color);
+		if (index != null) {
+			return index;
+		} else if (size == MAXIMUM_SIZE) {
+			return -1;
+		}
+		return add(color);
+	}
+
+	/**
+	 * Gets the index of the color in the table which is closest to the
+	 * specified color, comparing each component including the alpha.
+	 * @param color The color.
+	 * @return The index.
+	 */
+	public int indexOfNearest(Color color) {
+		int nearest = 0;
+		long nearestDistance = Long.MAX_VALUE;
+		for (int index = 0; index < size; index++) {
+			Color other = colors[index];
+			long red = color.getRed() - other.getRed();
+			long green = color.getGreen() - other.getGreen();
+			long blue = color.getBlue() - other.getBlue();
+			long alpha = color.getAlpha() - other.getAlpha();
+			long distance = red * red + green * green + blue * blue + alpha * alpha;
+			if (distance < nearestDistance) {
+				nearest = index;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Adds a color to the end of the table.
+	 * @param color The color.
+	 * @return The index of the new entry.
+	 */
+	private int add(Color color) {
+		int index = size;
+		Color[] array = colors;
+		if (index == array.length) {
+			array = Arrays.copyOf(array, index * 2);
+			array[index] = color;
+			colors = array;
+		} else {
+			array[index] = color;
+		}
+		size = index + 1;
+		if (!indices.containsKey(color)) {
+			indices.put(color, index);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A parser which splits its input into text and control sequences, and
+ * passes them to an {@link AnsiControlSequenceListener}. Parsers keep the
+ * state of incomplete sequences between calls, so the input may be split at
+ * any point.
+ * @author Graham Edgecombe
+ */
+interface ControlSequenceParser {
+
+	/**
+	 * Parses the specified character sequence.
+	 * @param seq The character sequence to parse.
+	 */
+	public void parse(CharSequence seq);
+
+	/**
+	 * Parses characters from the specified array.
+	 * @param buf The array of characters.
+	 * @param off The offset of the first character to parse.
+	 * @param len The number of characters to parse.
+	 * @throws IndexOutOfBoundsException if the offset and/or length are out
+	 * of bounds.
+	 */
+	public void parse(char[] buf, int off, int len);
+
+	/**
+	 * Decodes UTF-8 encoded bytes from the specified buffer and parses the
+	 * resulting characters. All of the remaining bytes in the buffer are
+	 * consumed: an incomplete character at the end is kept until the next
+	 * call.
+	 * @param buf The buffer.
+	 */
+	public void parse(ByteBuffer buf);
+
+	/**
+	 * Sets the maximum length of a control sequence, not counting the
+	 * introducer and command characters. Longer sequences are aborted, and
+	 * the rest of their characters are discarded.
+	 * @param length The maximum length.
+	 * @throws IllegalArgumentException if the length is not positive.
+	 */
+	public void setMaximumSequenceLength(int length);
+
+	/**
+	 * Gets the maximum length of a control sequence.
+	 * @return The maximum length.
+	 */
+	public int getMaximumSequenceLength();
+
+	/**
+	 * Gets the number of sequences which have been aborted because they were
+	 * longer than the maximum length.
+	 * @return The number of aborted sequences.
+	 */
+	public long getAbortedSequences();
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.util.Arrays;
+
+/**
+ * Records which parts of a terminal's buffer have changed, so that a
+ * renderer can redraw only those cells. Rows are identified by their index
+ * in the underlying storage rather than their logical position, so scrolling
+ * the buffer does not move the damage recorded against a row.
+ * <p>
+ * Every change is stamped with a new generation number. The generation of
+ * each row tells a reader whether it changed after some earlier generation,
+ * and the range of damaged columns in each row is accumulated until it is
+ * cleared by the reader. The generations are kept in chunks of rows in the
+ * same way as a {@link RowTable}, so a snapshot of them shares the chunks
+ * which have not changed since.
+ * @author Graham Edgecombe
+ */
+final class DamageTracker {
+
+	/**
+	 * The number of columns in each row.
+	 */
+	private final int columns;
+
+	/**
+	 * The generation at which each row last changed, in chunks of
+	 * {@link RowTable#CHUNK_SIZE} rows.
+	 */
+	private final long[][] generations;
+
+	/**
+	 * The snapshot epoch in which each chunk of {@link #generations} was
+	 * created.
+	 */
+	private final long[] chunkEpochs;
+
+	/**
+	 * The snapshot epoch of the current write section.
+	 */
+	private long epoch = 0;
+
+	/**
+	 * The first damaged column of each row (inclusive).
+	 */
+	private final int[] starts;
+
+	/**
+	 * The last damaged column of each row (exclusive).
+	 */
+	private final int[] ends;
+
+	/**
+	 * The current generation.
+	 */
+	private long generation = 0;
+
+	/**
+	 * The number of rows the buffer has scrolled by.
+	 */
+	private long scrollCount = 0;
+
+	/**
+	 * Creates the damage tracker.
+	 * @param rows The number of rows.
+	 * @param columns The number of columns.
+	 */
+	DamageTracker(int rows, int columns) {
+		this.columns = columns;
+		int chunks = RowTable.getChunkCount(rows);
+		this.generations = new long[chunks][];
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			generations[chunk] = new long[Math.min(RowTable.CHUNK_SIZE, rows - (chunk << RowTable.CHUNK_SHIFT))];
+		}
+		this.chunkEpochs = new long[chunks];
+		Arrays.fill(chunkEpochs, -1);
+		this.starts = new int[rows];
+		this.ends = new int[rows];
+		clear();
+	}
+
+	/**
+	 * Records a change to a range of columns in a row.
+	 * @param row The row.
+	 * @param start The first changed column (inclusive).
+	 * @param end The last changed column (exclusive).
+	 */
+	void damage(int row, int start, int end) {
+		int chunk = row >> RowTable.CHUNK_SHIFT;
+		if (chunkEpochs[chunk] != epoch) {
+			generations[chunk] = generations[chunk].clone();
+			chunkEpochs[chunk] = epoch;
+		}
+		generations[chunk][row & RowTable.CHUNK_MASK] = ++generation;
+		if (start < starts[row]) {
+			starts[row] = start;
+		}
+		if (end > ends[row]) {
+			ends[row] = end;
+		}
+	}
+
+	/**
+	 * Records a change to every column in a row.
+	 * @param row The row.
+	 */
+	void damage(int row) {
+		damage(row, 0, columns);
+	}
+
+	/**
+	 * Sets the snapshot epoch of the current write section. A chunk of
+	 * generations created in another epoch may be shared with a snapshot, so
+	 * it is copied before it is changed.
+	 * @param epoch The snapshot epoch.
+	 */
+	void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Records that the buffer has scrolled by one row.
+	 */
+	void scrolled() {
+		scrollCount++;
+	}
+
+	/**
+	 * Clears the ranges of damaged columns. Row generations are kept.
+	 */
+	void clear() {
+		Arrays.fill(starts, columns);
+		Arrays.fill(ends, 0);
+	}
+
+	/**
+	 * Gets the current generation.
+	 * @return The current generation.
+	 */
+	long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the number of rows the buffer has scrolled by.
+	 * @return The scroll count.
+	 */
+	long getScrollCount() {
+		return scrollCount;
+	}
+
+	/**
+	 * Gets the generation at which a row last changed.
+	 * @param row The row.
+	 * @return The generation.
+	 */
+	long getGeneration(int row) {
+		return generations[row >> RowTable.CHUNK_SHIFT][row & RowTable.CHUNK_MASK];
+	}
+
+	/**
+	 * Gets a snapshot of the generation at which each row last changed. The
+	 * snapshot epoch must be increased before this is called, so the chunks
+	 * are copied before they are next changed.
+	 * @return The chunks of generations, which must not be changed.
+	 */
+	long[][] getGenerations() {
+		return generations.clone();
+	}
+
+	/**
+	 * Gets the first damaged column of a row.
+	 * @param row The row.
+	 * @return The first damaged column (inclusive).
+	 */
+	int getStart(int row) {
+		return starts[row];
+	}
+
+	/**
+	 * Gets the last damaged column of a row.
+	 * @param row The row.
+	 * @return The last damaged column (exclusive).
+	 */
+	int getEnd(int row) {
+		return ends[row];
+	}
+
+}
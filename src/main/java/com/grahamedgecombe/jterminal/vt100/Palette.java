@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * The colors which the SGR ANSI escape sequence selects between: eight
+ * colors of normal intensity and eight of bright intensity. Cells refer to
+ * the colors of a palette by index, so changing the palette of a
+ * {@link Vt100TerminalModel} recolors every cell without changing them.
+ * Palettes are immutable.
+ * @author Graham Edgecombe
+ */
+public final class Palette {
+
+	/**
+	 * The number of colors of each intensity.
+	 */
+	public static final int COLORS = 8;
+
+	/**
+	 * The default palette.
+	 */
+	public static final Palette DEFAULT = new Palette(new Color[] {
+		new Color(0, 0, 0),
+		new Color(128, 0, 0),
+		new Color(0, 128, 0),
+		new Color(128, 128, 0),
+		new Color(0, 0, 128),
+		new Color(128, 0, 128),
+		new Color(0, 128, 128),
+		new Color(192, 192, 192)
+	}, new Color[] {
+		new Color(128, 128, 128),
+		new Color(255, 0, 0),
+		new Color(0, 255, 0),
+		new Color(255, 255, 0),
+		new Color(0, 0, 255),
+		new Color(255, 0, 255),
+		new Color(0, 255, 255),
+		new Color(255, 255, 255)
+	});
+
+	/**
+	 * The normal intensity colors.
+	 */
+	private final Color[] normal;
+
+	/**
+	 * The bright intensity colors.
+	 */
+	private final Color[] bright;
+
+	/**
+	 * Creates a palette.
+	 * @param normal The normal intensity colors.
+	 * @param bright The bright intensity colors.
+	 * @throws NullPointerException if either array or any color in them is
+	 * {@code null}.
+	 * @throws IllegalArgumentException if either array does not have exactly
+	 * {@link #COLORS} colors.
+	 */
+	public Palette(Color[] normal, Color[] bright) {
+		this.normal = copy(normal, "normal");
+		this.bright = copy(bright, "bright");
+	}
+
+	/**
+	 * Copies and checks an array of colors.
+	 * @param colors The colors.
+	 * @param name The name of the array.
+	 * @return The copy.
+	 * @throws NullPointerException if the array or any color in it is
+	 * {@code null}.
+	 * @throws IllegalArgumentException if the array does not have exactly
+	 * {@link #COLORS} colors.
+	 */
+	private static Color[] copy(Color[] colors, String name) {
+		if (colors == null) {
+			throw new NullPointerException(name);
+		}
+		if (colors.length != COLORS) {
+			throw new IllegalArgumentException(name + " must have " + COLORS + " colors");
+		}
+		Color[] copy = colors.clone();
+		for (Color color : copy) {
+			if (color == null) {
+				throw new NullPointerException(name);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Gets a normal intensity color.
+	 * @param index The index of the color, from {@code 0} to
+	 * {@code COLORS - 1}.
+	 * @return The color.
+	 * @throws IndexOutOfBoundsException if the index is out of bounds.
+	 */
+	public Color getNormalColor(int index) {
+		return normal[index];
+	}
+
+	/**
+	 * Gets a bright intensity color.
+	 * @param index The index of the color, from {@code 0} to
+	 * {@code COLORS - 1}.
+	 * @return The color.
+	 * @throws IndexOutOfBoundsException if the index is out of bounds.
+	 */
+	public Color getBrightColor(int index) {
+		return bright[index];
+	}
+
+	/**
+	 * Gets a color.
+	 * @param index The index of the color, from {@code 0} to
+	 * {@code COLORS - 1}.
+	 * @param bright {@code true} for a bright intensity color, {@code false}
+	 * for a normal intensity color.
+	 * @return The color.
+	 * @throws IndexOutOfBoundsException if the index is out of bounds.
+	 */
+	public Color getColor(int index, boolean bright) {
+		return bright ? this.bright[index] : normal[index];
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Palette)) {
+			return false;
+		}
+		Palette other = (Palette) obj;
+		return Arrays.equals(normal, other.normal) && Arrays.equals(bright, other.bright);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(normal) + Arrays.hashCode(bright);
+	}
+
+}
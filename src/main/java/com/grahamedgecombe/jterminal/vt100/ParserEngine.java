@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+/**
+ * The parsers a {@link Vt100TerminalModel} may use to interpret its input.
+ * @author Graham Edgecombe
+ */
+public enum ParserEngine {
+
+	/**
+	 * The original parser, which only recognises control sequences introduced
+	 * by {@code ESC [} or the single-byte CSI.
+	 */
+	ANSI {
+		@Override
+		ControlSequenceParser createParser(AnsiControlSequenceListener listener) {
+			return new AnsiControlSequenceParser(listener);
+		}
+	},
+
+	/**
+	 * A table-driven parser modelled on the DEC VT500-series terminals, which
+	 * also handles escape sequences, C1 controls and control strings.
+	 */
+	VT500 {
+		@Override
+		ControlSequenceParser createParser(AnsiControlSequenceListener listener) {
+			return new Vt500ControlSequenceParser(listener);
+		}
+	};
+
+	/**
+	 * Creates a parser of this type.
+	 * @param listener The listener.
+	 * @return The parser.
+	 */
+	abstract ControlSequenceParser createParser(AnsiControlSequenceListener listener);
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.util.Arrays;
+
+/**
+ * The rows of a terminal's buffer, in the order of their index in the
+ * underlying storage. Each row is either an array of packed cells or, if
+ * that is {@code null}, an encoded {@link ColdRow}.
+ * <p>
+ * The table is split into chunks of {@link #CHUNK_SIZE} rows. A snapshot
+ * shares the chunks with the table, which copies a chunk before it next
+ * changes a row in it, so taking a snapshot costs time proportional to the
+ * number of chunks, and changing the table afterwards costs time
+ * proportional to the number of rows in the chunks which change.
+ * @author Graham Edgecombe
+ */
+final class RowTable {
+
+	/**
+	 * The base 2 logarithm of the number of rows in a chunk.
+	 */
+	static final int CHUNK_SHIFT = 6;
+
+	/**
+	 * The number of rows in a chunk.
+	 */
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/**
+	 * The mask of the index of a row within its chunk.
+	 */
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * The snapshot epoch of a chunk which may be shared with a snapshot.
+	 */
+	private static final long SHARED_CHUNK = -1;
+
+	/**
+	 * The number of rows.
+	 */
+	private final int size;
+
+	/**
+	 * The arrays of packed cells of each chunk of rows.
+	 */
+	private final long[][][] cells;
+
+	/**
+	 * The encoded rows of each chunk of rows.
+	 */
+	private final ColdRow[][] coldRows;
+
+	/**
+	 * The snapshot epoch in which each chunk was created, or {@code null} if
+	 * the table is a snapshot and cannot be changed.
+	 */
+	private final long[] chunkEpochs;
+
+	/**
+	 * Creates a table in which every row is encoded as {@link ColdRow#EMPTY}.
+	 * @param size The number of rows.
+	 */
+	RowTable(int size) {
+		int chunks = getChunkCount(size);
+		this.size = size;
+		this.cells = new long[chunks][][];
+		this.coldRows = new ColdRow[chunks][];
+		this.chunkEpochs = new long[chunks];
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			int length = Math.min(CHUNK_SIZE, size - (chunk << CHUNK_SHIFT));
+			cells[chunk] = new long[length][];
+			coldRows[chunk] = new ColdRow[length];
+			Arrays.fill(coldRows[chunk], ColdRow.EMPTY);
+		}
+		Arrays.fill(chunkEpochs, SHARED_CHUNK);
+	}
+
+	/**
+	 * Creates a snapshot of a table, which shares its chunks.
+	 * @param table The table.
+	 */
+	private RowTable(RowTable table) {
+		this.size = table.size;
+		this.cells = table.cells.clone();
+		this.coldRows = table.coldRows.clone();
+		this.chunkEpochs = null;
+	}
+
+	/**
+	 * Gets the number of chunks in a table.
+	 * @param size The number of rows.
+	 * @return The number of chunks.
+	 */
+	static int getChunkCount(int size) {
+		return (size + CHUNK_MASK) >> CHUNK_SHIFT;
+	}
+
+	/**
+	 * Creates a snapshot of the table. The snapshot epoch must be increased
+	 * before this is called, so the chunks are copied before they are next
+	 * changed.
+	 * @return The snapshot, which must not be changed.
+	 */
+	RowTable snapshot() {
+		return new RowTable(this);
+	}
+
+	/**
+	 * Gets the number of rows.
+	 * @return The number of rows.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the array of packed cells of a row.
+	 * @param index The index of the row.
+	 * @return The array of packed cells, or {@code null} if the row is
+	 * encoded.
+	 */
+	long[] getCells(int index) {
+		return cells[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	/**
+	 * Gets the encoded form of a row.
+	 * @param index The index of the row.
+	 * @return The encoded row, or {@code null} if the row is not encoded.
+	 */
+	ColdRow getColdRow(int index) {
+		return coldRows[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	/**
+	 * Sets a row.
+	 * @param index The index of the row.
+	 * @param row The array of packed cells, or {@code null} if the row is
+	 * encoded.
+	 * @param coldRow The encoded row, or {@code null} if the row is not
+	 * encoded.
+	 * @param epoch The snapshot epoch of the current write section. A chunk
+	 * created in another epoch may be shared with a snapshot, so it is copied
+	 * first.
+	 */
+	void set(int index, long[] row, ColdRow coldRow, long epoch) {
+		int chunk = index >> CHUNK_SHIFT;
+		if (chunkEpochs[chunk] != epoch) {
+			cells[chunk] = cells[chunk].clone();
+			coldRows[chunk] = coldRows[chunk].clone();
+			chunkEpochs[chunk] = epoch;
+		}
+		cells[chunk][index & CHUNK_MASK] = row;
+		coldRows[chunk][index & CHUNK_MASK] = coldRow;
+	}
+
+	/**
+	 * Gets an estimate of the number of bytes of memory used by the table
+	 * and its rows, assuming a 64-bit virtual machine with compressed
+	 * references. An array of cells shared by several rows or snapshots is
+	 * counted once for each row.
+	 * @return The number of bytes.
+	 */
+	long getMemoryUsage() {
+		long size = 2 * ColdRow.align(16 + cells.length * 4L) + ColdRow.align(16 + cells.length * 8L);
+		for (int chunk = 0; chunk < cells.length; chunk++) {
+			size += 2 * ColdRow.align(16 + cells[chunk].length * 4L);
+			for (int row = 0; row < cells[chunk].length; row++) {
+				long[] array = cells[chunk][row];
+				if (array != null) {
+					size += ColdRow.align(16 + array.length * 8L);
+				} else {
+					size += coldRows[chunk][row].getSize();
+				}
+			}
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.grahamedgecombe.jterminal.TerminalCell;
+
+/**
+ * A cache of {@link TerminalCell} instances keyed by the character and color
+ * indices of a packed cell. Cells for US-ASCII characters in the SGR colors
+ * are kept in a dense table; any other cells are kept in a bounded map which
+ * discards the least recently used entries. The cache may be used by more
+ * than one thread. A cache is bound to a single color table, so it is
+ * replaced along with the table when the palette changes.
+ * @author Graham Edgecombe
+ */
+final class TerminalCellCache {
+
+	/**
+	 * The number of characters covered by the dense table.
+	 */
+	private static final int DENSE_CHARACTERS = 128;
+
+	/**
+	 * The number of color indices covered by the dense table.
+	 */
+	private static final int DENSE_COLORS = 16;
+
+	/**
+	 * The default maximum number of entries in the map of other cells.
+	 */
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * The dense table of cells, indexed by {@link #denseIndex(char, int, int)}.
+	 */
+	private final TerminalCell[] table = new TerminalCell[DENSE_CHARACTERS * DENSE_COLORS * DENSE_COLORS];
+
+	/**
+	 * The map of cells which do not fit in the dense table.
+	 */
+	private final Map<Long, TerminalCell> map;
+
+	/**
+	 * The color table used to create cells.
+	 */
+	private final ColorTable colors;
+
+	/**
+	 * The number of cache hits.
+	 */
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * The number of cache misses.
+	 */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates the cache with the default capacity.
+	 * @param colors The color table used to create cells.
+	 */
+	public TerminalCellCache(ColorTable colors) {
+		this(colors, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates the cache.
+	 * @param colors The color table used to create cells.
+	 * @param capacity The maximum number of cells kept outside of the dense
+	 * table.
+	 * @throws IllegalArgumentException if the capacity is negative.
+	 */
+	public TerminalCellCache(ColorTable colors, final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.colors = colors;
+		this.map = new LinkedHashMap<Long, TerminalCell>(16, 0.75f, true) {
+			private static final long serialVersionUID = -3263393806460446815L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, TerminalCell> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cell with the specified character and colors, creating it if
+	 * it is not in the cache. Cells in the dense table are looked up without
+	 * locking, in the same way as {@link #getShared(char, int, int)}, and
+	 * only the map of other cells is locked.
+	 * @param character The character.
+	 * @param background The background color index.
+	 * @param foreground The foreground color index.
+	 * @return The cell.
+	 */
+	public TerminalCell get(char character, int background, int foreground) {
+		if (character < DENSE_CHARACTERS && background < DENSE_COLORS && foreground < DENSE_COLORS) {
+			int index = denseIndex(character, background, foreground);
+			TerminalCell cell = table[index];
+			if (cell == null) {
+				misses.increment();
+				cell = table[index] = create(character, background, foreground);
+			} else {
+				hits.increment();
+			}
+			return cell;
+		}
+
+		Long key = ((long) background << 32) | ((long) foreground << 16) | character;
+		synchronized (map) {
+			TerminalCell cell = map.get(key);
+			if (cell == null) {
+				misses.increment();
+				cell = create(character, background, foreground);
+				map.put(key, cell);
+			} else {
+				hits.increment();
+			}
+			return cell;
+		}
+	}
+
+	/**
+	 * Gets the cell with the specified character and colors from the dense
+	 * table, without counting a hit or a miss. Like
+	 * {@link #get(char, int, int)} this may be called from any thread without
+	 * locking: cells are immutable and the palette colors of a table never
+	 * change, so the worst a race can do is create the same cell twice.
+	 * @param character The character.
+	 * @param background The background color index.
+	 * @param foreground The foreground color index.
+	 * @return The cell, or {@code null} if it is not covered by the dense
+	 * table.
+	 */
+	public TerminalCell getShared(char character, int background, int foreground) {
+		if (character < DENSE_CHARACTERS && background < DENSE_COLORS && foreground < DENSE_COLORS) {
+			int index = denseIndex(character, background, foreground);
+			TerminalCell cell = table[index];
+			if (cell == null) {
+				cell = table[index] = create(character, background, foreground);
+			}
+			return cell;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the number of cache hits.
+	 * @return The number of cache hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of cache misses.
+	 * @return The number of cache misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Creates a cell.
+	 * @param character The character.
+	 * @param background The background color index.
+	 * @param foreground The foreground color index.
+	 * @return The cell.
+	 */
+	private TerminalCell create(char character, int background, int foreground) {
+		return new TerminalCell(character, colors.get(background), colors.get(foreground));
+	}
+
+	/**
+	 * Calculates the index of a cell in the dense table.
+	 * @param character The character.
+	 * @param background The background color index.
+	 * @param foreground The foreground color index.
+	 * @return The index.
+	 */
+	private static int denseIndex(char character, int background, int foreground) {
+		return (background * DENSE_COLORS + foreground) * DENSE_CHARACTERS + character;
+	}
+
+}
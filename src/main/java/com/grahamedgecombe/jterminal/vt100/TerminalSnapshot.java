@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.awt.Color;
+
+import com.grahamedgecombe.jterminal.TerminalCell;
+import com.grahamedgecombe.jterminal.TerminalScreen;
+
+/**
+ * An immutable copy of the contents of a {@link Vt100TerminalModel}, taken by
+ * {@link Vt100TerminalModel#snapshot()}. A snapshot may be read on any thread
+ * while the model it was taken from continues to change.
+ * @author Graham Edgecombe
+ */
+public final class TerminalSnapshot implements TerminalScreen {
+
+	/**
+	 * The rows, in the same format and order as the circular buffer of the
+	 * model. The chunks of the table and the arrays of cells are shared with
+	 * the model, which copies them before changing them.
+	 */
+	private final RowTable table;
+
+	/**
+	 * The index in the {@link #table} of the first row.
+	 */
+	private final int firstRow;
+
+	/**
+	 * The generation at which each row last changed, in chunks of
+	 * {@link RowTable#CHUNK_SIZE} rows in the same order as the
+	 * {@link #table}.
+	 */
+	private final long[][] rowGenerations;
+
+	/**
+	 * The number of columns.
+	 */
+	private final int columns;
+
+	/**
+	 * The number of rows.
+	 */
+	private final int rows;
+
+	/**
+	 * The cursor row.
+	 */
+	private final int cursorRow;
+
+	/**
+	 * The cursor column.
+	 */
+	private final int cursorColumn;
+
+	/**
+	 * The generation of the model.
+	 */
+	private final long generation;
+
+	/**
+	 * The scroll count of the model.
+	 */
+	private final long scrollCount;
+
+	/**
+	 * The colors referenced by the cells, indexed by color index.
+	 */
+	private final Color[] colors;
+
+	/**
+	 * The cell cache of the model, whose dense table is shared.
+	 */
+	private final TerminalCellCache cellCache;
+
+	/**
+	 * The default background color.
+	 */
+	private final Color defaultBackgroundColor;
+
+	/**
+	 * The default foreground color.
+	 */
+	private final Color defaultForegroundColor;
+
+	/**
+	 * Creates the snapshot. The arrays are not copied, so they must not be
+	 * changed afterwards.
+	 * @param table The rows.
+	 * @param firstRow The index in the table of the first row.
+	 * @param rowGenerations The chunks of the generation at which each row
+	 * last changed.
+	 * @param columns The number of columns.
+	 * @param rows The number of rows.
+	 * @param cursorRow The cursor row.
+	 * @param cursorColumn The cursor column.
+	 * @param generation The generation of the model.
+	 * @param scrollCount The scroll count of the model.
+	 * @param colors The colors referenced by the cells.
+	 * @param cellCache The cell cache of the model.
+	 * @param defaultBackgroundColor The default background color.
+	 * @param defaultForegroundColor The default foreground color.
+	 */
+	TerminalSnapshot(RowTable table, int firstRow, long[][] rowGenerations, int columns, int rows,
+			int cursorRow, int cursorColumn, long generation, long scrollCount, Color[] colors, TerminalCellCache cellCache,
+			Color defaultBackgroundColor, Color defaultForegroundColor) {
+		this.table = table;
+		this.firstRow = firstRow;
+		this.rowGenerations = rowGenerations;
+		this.columns = columns;
+		this.rows = rows;
+		this.cursorRow = cursorRow;
+		this.cursorColumn = cursorColumn;
+		this.generation = generation;
+		this.scrollCount = scrollCount;
+		this.colors = colors;
+		this.cellCache = cellCache;
+		this.defaultBackgroundColor = defaultBackgroundColor;
+		this.defaultForegroundColor = defaultForegroundColor;
+	}
+
+	@Override
+	public TerminalCell getCell(int column, int row) {
+		if (column < 0 || row < 0 || column >= columns || row >= table.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		int index = index(row);
+		long[] array = table.getCells(index);
+		long cell = array == null ? table.getColdRow(index).getCell(column) : array[column];
+		if (cell == Vt100TerminalModel.EMPTY_CELL) {
+			return null;
+		}
+		char character = (char) (cell & Vt100TerminalModel.CHARACTER_MASK);
+		int background = (int) (cell >>> Vt100TerminalModel.BACKGROUND_SHIFT) & Vt100TerminalModel.COLOR_MASK;
+		int foreground = (int) (cell >>> Vt100TerminalModel.FOREGROUND_SHIFT) & Vt100TerminalModel.COLOR_MASK;
+		TerminalCell shared = cellCache.getShared(character, background, foreground);
+		if (shared != null) {
+			return shared;
+		}
+		return new TerminalCell(character, colors[background], colors[foreground]);
+	}
+
+	@Override
+	public int getColumns() {
+		return columns;
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int getBufferSize() {
+		return table.size();
+	}
+
+	@Override
+	public int getCursorRow() {
+		return cursorRow;
+	}
+
+	@Override
+	public int getCursorColumn() {
+		return cursorColumn;
+	}
+
+	@Override
+	public Color getDefaultBackgroundColor() {
+		return defaultBackgroundColor;
+	}
+
+	@Override
+	public Color getDefaultForegroundColor() {
+		return defaultForegroundColor;
+	}
+
+	@Override
+	public long getGeneration() {
+		return generation;
+	}
+
+	@Override
+	public long getScrollCount() {
+		return scrollCount;
+	}
+
+	@Override
+	public long getRowGeneration(int row) {
+		if (row < 0 || row >= table.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		int index = index(row);
+		return rowGenerations[index >> RowTable.CHUNK_SHIFT][index & RowTable.CHUNK_MASK];
+	}
+
+	/**
+	 * Gets the index in the {@link #table} of the specified (logical)
+	 * row.
+	 * @param row The row.
+	 * @return The index.
+	 */
+	private int index(int row) {
+		int index = firstRow + row;
+		if (index >= table.size()) {
+			index -= table.size();
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental UTF-8 decoder. A character may be split across any number of
+ * calls to {@link #decode(ByteBuffer, char[])}, the decoder keeps the bytes of
+ * an incomplete character until the rest arrive.
+ * <p>
+ * Malformed input is replaced with {@code U+FFFD}. This includes single
+ * bytes in the range {@code 0x80-0x9F}: C1 controls must be encoded as
+ * characters {@code U+0080-U+009F}, in the same way as xterm expects in UTF-8
+ * mode.
+ * @author Graham Edgecombe
+ */
+final class Utf8Decoder {
+
+	/**
+	 * The replacement character.
+	 */
+	private static final char REPLACEMENT = '\uFFFD';
+
+	/**
+	 * The code point being decoded.
+	 */
+	private int codePoint;
+
+	/**
+	 * The number of continuation bytes still expected.
+	 */
+	private int remaining = 0;
+
+	/**
+	 * The smallest code point which may be encoded with the number of bytes
+	 * in the current sequence, used to reject overlong forms.
+	 */
+	private int minimum;
+
+	/**
+	 * Decodes bytes from the buffer into the character array until either
+	 * the buffer is empty or the array is full.
+	 * @param in The buffer.
+	 * @param out The character array, which must have room for at least two
+	 * characters.
+	 * @return The number of characters written to the array.
+	 */
+	public int decode(ByteBuffer in, char[] out) {
+		int n = 0;
+		int limit = out.length - 1; // leave room for a surrogate pair
+		while (n < limit && in.hasRemaining()) {
+			int b = in.get();
+			if (remaining == 0) {
+				if (b >= 0) {
+					out[n++] = (char) b;
+					continue;
+				}
+
+				b &= 0xFF;
+				if (b >= 0xC2 && b <= 0xDF) {
+					codePoint = b & 0x1F;
+					remaining = 1;
+					minimum = 0x80;
+				} else if (b >= 0xE0 && b <= 0xEF) {
+					codePoint = b & 0x0F;
+					remaining = 2;
+					minimum = 0x800;
+				} else if (b >= 0xF0 && b <= 0xF4) {
+					codePoint = b & 0x07;
+					remaining = 3;
+					minimum = 0x10000;
+				} else {
+					out[n++] = REPLACEMENT;
+				}
+			} else if ((b & 0xC0) == 0x80) {
+				codePoint = (codePoint << 6) | (b & 0x3F);
+				if (--remaining == 0) {
+					if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+						out[n++] = REPLACEMENT;
+					} else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+						out[n++] = Character.highSurrogate(codePoint);
+						out[n++] = Character.lowSurrogate(codePoint);
+					} else {
+						out[n++] = (char) codePoint;
+					}
+				}
+			} else {
+				// the sequence was cut short: replace it and decode this byte
+				// again as the start of a new sequence
+				remaining = 0;
+				out[n++] = REPLACEMENT;
+				in.position(in.position() - 1);
+			}
+		}
+		return n;
+	}
+
+}
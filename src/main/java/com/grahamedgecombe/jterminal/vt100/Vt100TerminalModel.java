@@ -23,6 +23,12 @@
 package com.grahamedgecombe.jterminal.vt100;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 import com.grahamedgecombe.jterminal.AbstractTerminalModel;
 import com.grahamedgecombe.jterminal.TerminalCell;
@@ -32,41 +38,119 @@ import com.grahamedgecombe.jterminal.bell.NopBellStrategy;
 
 /**
  * A VT100/ANSI-compatible terminal model.
+ * <p>
+ * The model may be changed by one writer thread at a time, which is usually
+ * the thread reading the output of a process, while any number of other
+ * threads read it. Each change, such as a call to {@link #print(String)},
+ * is made in a write section. Readers do not take a lock: they read the
+ * state optimistically and check that no write section ran in the meantime,
+ * in the manner of a seqlock, and only wait for the writer if one did. A
+ * reader therefore never sees the effects of half of a change, and the
+ * writer is only held up by a reader which has already been overtaken by it
+ * once. Changes made from more than one thread are also safe, as the write
+ * sections exclude each other, but they are not ordered.
+ * <p>
+ * Cells may be set with any colors. Colors which are no longer used by any
+ * cell are forgotten when room is needed for new ones, but if 65,536
+ * different colors are in use at once, further colors are replaced with the
+ * closest color already in use.
  * @author Graham Edgecombe
  */
 public class Vt100TerminalModel extends AbstractTerminalModel {
 
 	/**
-	 * A {@link AnsiControlSequenceListener} which modifies the
-	 * {@link TerminalModel} appropriately when an event happens.
+	 * The state kept separately for the primary and alternate screens. The
+	 * rows of the screen which is shown are held by the model itself, so they
+	 * are only stored here while the screen is hidden.
 	 * @author Graham Edgecombe
 	 */
-	private class Vt100Listener implements AnsiControlSequenceListener {
+	private static final class Screen {
+
+		/**
+		 * The table of rows while the screen is hidden, or {@code null}.
+		 */
+		private RowTable table;
+
+		/**
+		 * The snapshot epoch of each row while the screen is hidden, or
+		 * {@code null}.
+		 */
+		private long[] rowEpochs;
+
+		/**
+		 * The index of the first row while the screen is hidden.
+		 */
+		private int firstRow;
 
 		/**
-		 * The saved cursor row.
+		 * The saved cursor row, or {@code -1} if the cursor has not been
+		 * saved.
 		 */
 		private int savedCursorRow = -1;
 
 		/**
-		 * The saved cursor column.
+		 * The saved cursor column, or {@code -1} if the cursor has not been
+		 * saved.
 		 */
 		private int savedCursorColumn = -1;
 
+		/**
+		 * The saved foreground bold flag.
+		 */
+		private boolean savedForegroundBold;
+
+		/**
+		 * The saved background bold flag.
+		 */
+		private boolean savedBackgroundBold;
+
+		/**
+		 * The saved foreground color.
+		 */
+		private int savedForegroundColor;
+
+		/**
+		 * The saved background color.
+		 */
+		private int savedBackgroundColor;
+
+	}
+
+	/**
+	 * A {@link AnsiControlSequenceListener} which modifies the
+	 * {@link TerminalModel} appropriately when an event happens.
+	 * @author Graham Edgecombe
+	 */
+	private class Vt100Listener implements AnsiControlSequenceListener {
+
+		/**
+		 * The last character printed, which is repeated by the REP control
+		 * sequence, or {@code 0} if no character has been printed.
+		 */
+		private char lastCharacter = 0;
+
 		@Override
 		public void parsedControlSequence(AnsiControlSequence seq) {
-			char command = seq.getCommand();
-			String[] parameters = seq.getParameters();
+			if (seq.getPrefix() == '?' && seq.getIntermediate() == 0) {
+				char command = seq.getCommand();
+				if (command == 'h' || command == 'l') {
+					for (int i = 0; i < seq.getParameterCount(); i++) {
+						setPrivateMode(seq.getParameter(i, 0), command == 'h');
+					}
+				}
+				return;
+			} else if (seq.getPrefix() != 0 || seq.getIntermediate() != 0) {
+				// other private and intermediate forms are not supported
+				return;
+			}
 
+			char command = seq.getCommand();
 			switch (command) {
 			case 'A':
 			case 'B':
 			case 'C':
 			case 'D':
-				int n = 1;
-				if (parameters.length == 1) {
-					n = Integer.parseInt(parameters[0]);
-				}
+				int n = Math.max(seq.getParameter(0, 1), 1);
 				if (command == 'A') {
 					moveCursorUp(n);
 				} else if (command == 'B') {
@@ -79,10 +163,7 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 				break;
 			case 'E':
 			case 'F':
-				n = 1;
-				if (parameters.length == 1) {
-					n = Integer.parseInt(parameters[0]);
-				}
+				n = Math.max(seq.getParameter(0, 1), 1);
 				if (command == 'E') {
 					moveCursorDown(n);
 				} else if (command == 'F') {
@@ -91,118 +172,259 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 				setCursorColumn(0);
 				break;
 			case 'G':
-				if (parameters.length == 1) {
-					n = Integer.parseInt(parameters[0]);
-					setCursorColumn(n - 1);
-				}
+				n = seq.getParameter(0, 1);
+				setCursorColumn(clamp(n - 1, columns));
 				break;
 			case 'H':
 			case 'f':
-				if (parameters.length == 2) {
-					n = 1;
-					int m = 1;
-					if (parameters[0].length() > 0) {
-						n = Integer.parseInt(parameters[0]);
-					}
-					if (parameters[1].length() > 0) {
-						m = Integer.parseInt(parameters[1]);
-					}
-					setCursorRow(n - 1);
-					setCursorColumn(m - 1);
-				}
+				n = seq.getParameter(0, 1);
+				int m = seq.getParameter(1, 1);
+				setCursorRow(clamp(n - 1, bufferSize));
+				setCursorColumn(clamp(m - 1, columns));
 				break;
 			case 'J':
-				n = 0;
-				if (parameters.length == 1) {
-					n = Integer.parseInt(parameters[0]);
-				}
+				n = seq.getParameter(0, 0);
+				// the cursor may be just past the last column, waiting to wrap
+				int column = Math.min(cursorColumn, columns);
 				if (n == 0) {
-					int row = cursorRow;
-					int column = cursorColumn;
-					while(row < rows) {
-						while(column < columns) {
-							cells[row][column] = null;
-							column++;
-						}
-						column = 0;
-						row++;
+					if (cursorRow < rows) {
+						fill(column, cursorRow, columns - column, 1, EMPTY_CELL);
+						fill(0, cursorRow + 1, columns, rows - cursorRow - 1, EMPTY_CELL);
 					}
 				} else if (n == 1) {
-					int row = cursorRow;
-					int column = cursorColumn;
-					while(row >= 0) {
-						while(column >= 0) {
-							cells[row][column] = null;
-							column--;
-						}
-						column = columns - 1;
-						row--;
-					}
+					fill(0, 0, columns, cursorRow, EMPTY_CELL);
+					fill(0, cursorRow, Math.min(column + 1, columns), 1, EMPTY_CELL);
 				} else if (n == 2) {
 					clear();
 				}
 				break;
 			case 'K':
-				n = 0;
-				if (parameters.length == 1) {
-					n = Integer.parseInt(parameters[0]);
-				}
+				n = seq.getParameter(0, 0);
+				column = Math.min(cursorColumn, columns);
 				if (n == 0) {
-					for (int row = cursorRow; row < rows; row++) {
-						cells[row][cursorColumn] = null;
-					}
+					fill(column, cursorRow, columns - column, 1, EMPTY_CELL);
 				} else if (n == 1) {
-					for (int row = cursorRow; row >= 0; row--) {
-						cells[row][cursorColumn] = null;
-					}
+					fill(0, cursorRow, Math.min(column + 1, columns), 1, EMPTY_CELL);
 				} else if (n == 2) {
-					for (int column = 0; column < columns; column++) {
-						cells[cursorRow][column] = null;
+					fill(0, cursorRow, columns, 1, EMPTY_CELL);
+				}
+				break;
+			case '@':
+			case 'P':
+			case 'X':
+				if (columns == 0 || cursorRow >= bufferSize) {
+					break;
+				}
+				column = Math.min(cursorColumn, columns - 1);
+				n = Math.min(Math.max(seq.getParameter(0, 1), 1), columns - column);
+				if (command == '@') {
+					copy(column, cursorRow, columns - column - n, 1, column + n, cursorRow);
+					fill(column, cursorRow, n, 1, EMPTY_CELL);
+				} else if (command == 'P') {
+					copy(column + n, cursorRow, columns - column - n, 1, column, cursorRow);
+					fill(columns - n, cursorRow, n, 1, EMPTY_CELL);
+				} else {
+					fill(column, cursorRow, n, 1, EMPTY_CELL);
+				}
+				break;
+			case 'L':
+			case 'M':
+				if (cursorRow >= marginTop && cursorRow < marginBottom) {
+					n = Math.max(seq.getParameter(0, 1), 1);
+					scrollRegion(cursorRow, marginBottom, command == 'L' ? -n : n);
+					cursorColumn = 0;
+				}
+				break;
+			case 'b':
+				if (lastCharacter != 0 && columns > 0) {
+					// the repetition is limited to a screen full of characters
+					int repeat = Math.min(Math.max(seq.getParameter(0, 1), 1), columns * rows);
+					char[] text = new char[Math.min(repeat, columns)];
+					Arrays.fill(text, lastCharacter);
+					while (repeat > 0) {
+						int length = Math.min(repeat, text.length);
+						parsedText(text, 0, length);
+						repeat -= length;
 					}
 				}
 				break;
 			case 'm':
-				if (parameters.length == 0) {
-					parameters = new String[] { "0" };
-				}
-				for (String parameter : parameters) {
-					if (parameter.equals("0")) {
+				int count = Math.max(seq.getParameterCount(), 1);
+				for (int i = 0; i < count; i++) {
+					int parameter = seq.getParameter(i, 0);
+					if (seq.isSubParameter(i)) {
+						continue;
+					}
+					if (parameter == 0) {
 						foregroundColor = DEFAULT_FOREGROUND_COLOR;
 						backgroundColor = DEFAULT_BACKGROUND_COLOR;
 						backgroundBold = DEFAULT_BACKGROUND_BOLD;
 						foregroundBold = DEFAULT_FOREGROUND_BOLD;
-					} else if (parameter.equals("2")) {
+					} else if (parameter == 2) {
 						backgroundBold = true;
 						foregroundBold = true;
-					} else if (parameter.equals("22")) {
+					} else if (parameter == 22) {
 						backgroundBold = false;
 						foregroundBold = false;
-					} else if ((parameter.startsWith("3") || parameter.startsWith("4")) && parameter.length() == 2) {
-						int color = Integer.parseInt(parameter.substring(1));
-						if (parameter.startsWith("3")) {
-							foregroundColor = color;
-						} else if (parameter.startsWith("4")) {
-							backgroundColor = color;
+					} else if (parameter >= 30 && parameter <= 37) {
+						foregroundColor = parameter - 30;
+					} else if (parameter == 39) {
+						foregroundColor = DEFAULT_FOREGROUND_COLOR;
+					} else if (parameter >= 40 && parameter <= 47) {
+						backgroundColor = parameter - 40;
+					} else if (parameter == 49) {
+						backgroundColor = DEFAULT_BACKGROUND_COLOR;
+					} else if ((parameter == 38 || parameter == 48) && !seq.isSubParameter(i + 1)) {
+						// extended colors are not supported, skip their arguments
+						int mode = seq.getParameter(i + 1, 0);
+						if (mode == 5) {
+							i += 2;
+						} else if (mode == 2) {
+							i += 4;
 						}
 					}
 				}
+				updateAttributes();
 				break;
-			case 'u':
-				if (savedCursorColumn != -1 && savedCursorRow != -1) {
-					cursorColumn = savedCursorColumn;
-					cursorRow = savedCursorRow;
+			case 'r':
+				n = seq.getParameter(0, 1);
+				m = seq.getParameter(1, rows);
+				if (m == 0) {
+					m = rows;
+				}
+				if (n >= 1 && n < m && m <= rows) {
+					marginTop = n - 1;
+					marginBottom = m;
+					cursorRow = 0;
+					cursorColumn = 0;
 				}
 				break;
+			case 'S':
+				scrollRegion(marginTop, marginBottom, Math.max(seq.getParameter(0, 1), 1));
+				break;
+			case 'T':
+				scrollRegion(marginTop, marginBottom, -Math.max(seq.getParameter(0, 1), 1));
+				break;
+			case 'u':
+				restoreCursor();
+				break;
 			case 's':
-				savedCursorColumn = cursorColumn;
-				savedCursorRow = cursorRow;
+				saveCursor();
+				break;
+			}
+		}
+
+		@Override
+		public void parsedEscapeSequence(AnsiControlSequence seq) {
+			if (seq.getIntermediate() != 0) {
+				// character set designations etc. are not supported
+				return;
+			}
+
+			switch (seq.getCommand()) {
+			case '7':
+				saveCursor();
+				break;
+			case '8':
+				restoreCursor();
+				break;
+			case 'E':
+				cursorColumn = 0;
+				lineFeed();
+				break;
+			case 'D':
+				lineFeed();
+				break;
+			case 'M':
+				if (cursorRow == marginTop) {
+					scrollRegion(marginTop, marginBottom, -1);
+				} else if (cursorRow > 0) {
+					cursorRow--;
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Sets or resets a DEC private mode. Only the alternate screen modes
+		 * are supported, others are ignored.
+		 * @param mode The mode.
+		 * @param enabled {@code true} to set the mode, {@code false} to reset
+		 * it.
+		 */
+		private void setPrivateMode(int mode, boolean enabled) {
+			switch (mode) {
+			case 47:
+				switchScreen(enabled ? alternateScreen : primaryScreen);
+				break;
+			case 1047:
+				if (enabled) {
+					switchScreen(alternateScreen);
+				} else if (screen == alternateScreen) {
+					switchScreen(primaryScreen);
+					clearAlternateScreen();
+				}
 				break;
+			case 1048:
+				if (enabled) {
+					saveCursor();
+				} else {
+					restoreCursor();
+				}
+				break;
+			case 1049:
+				if (enabled) {
+					if (screen == primaryScreen) {
+						saveCursor();
+						clearAlternateScreen();
+						switchScreen(alternateScreen);
+					}
+				} else if (screen == alternateScreen) {
+					switchScreen(primaryScreen);
+					restoreCursor();
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Saves the cursor position and the SGR state of the current screen.
+		 */
+		private void saveCursor() {
+			screen.savedCursorColumn = cursorColumn;
+			screen.savedCursorRow = cursorRow;
+			screen.savedForegroundBold = foregroundBold;
+			screen.savedBackgroundBold = backgroundBold;
+			screen.savedForegroundColor = foregroundColor;
+			screen.savedBackgroundColor = backgroundColor;
+		}
+
+		/**
+		 * Restores the cursor position and the SGR state saved for the
+		 * current screen, if there are any.
+		 */
+		private void restoreCursor() {
+			if (screen.savedCursorColumn != -1 && screen.savedCursorRow != -1) {
+				cursorColumn = screen.savedCursorColumn;
+				cursorRow = screen.savedCursorRow;
+				foregroundBold = screen.savedForegroundBold;
+				backgroundBold = screen.savedBackgroundBold;
+				foregroundColor = screen.savedForegroundColor;
+				backgroundColor = screen.savedBackgroundColor;
+				updateAttributes();
 			}
 		}
 
 		@Override
-		public void parsedString(String str) {
-			for (char ch : str.toCharArray()) {
+		public void parsedText(char[] buf, int off, int len) {
+			/*
+			 * the damage caused by printing is accumulated into a run of
+			 * columns in a single row, which is recorded when the cursor
+			 * leaves the row and at the end of the text
+			 */
+			int damagedRow = -1, damagedStart = 0, damagedEnd = 0;
+			for (int end = off + len; off < end; off++) {
+				char ch = buf[off];
 				switch (ch) {
 				case '\0':
 					continue;
@@ -211,14 +433,14 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 					continue;
 				case '\n':
 					cursorColumn = 0;
-					cursorRow++;
+					lineFeed();
 					continue;
 				case '\t':
 					while ((++cursorColumn % TAB_WIDTH) != 0);
 					continue;
 				case 127:
 					if (cursorColumn > 0) {
-						cells[cursorRow][--cursorColumn] = null;
+						fill(--cursorColumn, cursorRow, 1, 1, EMPTY_CELL);
 					}
 					continue;
 				case 7:
@@ -228,22 +450,39 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 
 				if (cursorColumn >= columns) {
 					cursorColumn = 0;
-					cursorRow++;
+					lineFeed();
 				}
 
 				if (cursorRow >= bufferSize) {
-					for (int i = 1; i < bufferSize; i++) {
-						System.arraycopy(cells[i], 0, cells[i - 1], 0, columns);
-					}
-					for (int i = 0; i < columns; i++) {
-						cells[bufferSize - 1][i] = null;
+					if (damagedRow != -1) {
+						damage.damage(index(damagedRow), damagedStart, damagedEnd);
+						damagedRow = -1;
 					}
+					scroll();
 					cursorRow--;
 				}
 
-				Color back = backgroundBold ? SgrColor.COLOR_BRIGHT[backgroundColor] : SgrColor.COLOR_NORMAL[backgroundColor];
-				Color fore = foregroundBold ? SgrColor.COLOR_BRIGHT[foregroundColor] : SgrColor.COLOR_NORMAL[foregroundColor];
-				cells[cursorRow][cursorColumn++] = new TerminalCell(ch, back, fore);
+				if (cursorRow != damagedRow) {
+					if (damagedRow != -1) {
+						damage.damage(index(damagedRow), damagedStart, damagedEnd);
+					}
+					damagedRow = cursorRow;
+					damagedStart = cursorColumn;
+					damagedEnd = cursorColumn;
+				} else if (cursorColumn < damagedStart) {
+					damagedStart = cursorColumn;
+				}
+
+				writableRow(cursorRow)[cursorColumn++] = attributes | ch;
+				lastCharacter = ch;
+
+				if (cursorColumn > damagedEnd) {
+					damagedEnd = cursorColumn;
+				}
+			}
+
+			if (damagedRow != -1) {
+				damage.damage(index(damagedRow), damagedStart, damagedEnd);
 			}
 		}
 
@@ -284,15 +523,94 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 	 */
 	private static final int DEFAULT_BACKGROUND_COLOR = 0;
 
+	/**
+	 * The snapshot epoch of a row whose array of cells is shared with another
+	 * row, which is never equal to the current epoch.
+	 */
+	private static final long SHARED_ROW = -1;
+
+	/**
+	 * The stamp used by the writer when it reads the model from within its
+	 * own write section, which is always valid.
+	 */
+	private static final long WRITER_STAMP = -1;
+
+	/**
+	 * The value of an empty cell in the arrays of the {@link #table}.
+	 */
+	static final long EMPTY_CELL = 0;
+
+	/**
+	 * The flag set in every non-empty cell in the arrays of the
+	 * {@link #table}.
+	 */
+	private static final long CELL_PRESENT = 1L << 48;
+
+	/**
+	 * The mask of the character in a packed cell.
+	 */
+	static final int CHARACTER_MASK = 0xFFFF;
+
+	/**
+	 * The mask of a color index in a packed cell, once it has been shifted.
+	 */
+	static final int COLOR_MASK = 0xFFFF;
+
+	/**
+	 * The shift of the foreground color index in a packed cell.
+	 */
+	static final int FOREGROUND_SHIFT = 16;
+
+	/**
+	 * The shift of the background color index in a packed cell.
+	 */
+	static final int BACKGROUND_SHIFT = 32;
+
+	/**
+	 * The lock which guards the state of the model. Write sections hold the
+	 * write lock, and readers validate optimistic reads against it. Listeners
+	 * are notified after the write lock is released.
+	 */
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * The thread in a write section, or {@code null} if there is not one.
+	 * Methods called by the writer from within its own write section, such
+	 * as those called by the {@link #listener}, neither lock nor validate.
+	 */
+	private volatile Thread writer;
+
 	/**
 	 * The ANSI control sequence listener.
 	 */
 	private final AnsiControlSequenceListener listener = this.new Vt100Listener();
 
+	/**
+	 * The type of the ANSI control sequence parser.
+	 */
+	private ParserEngine parserEngine = ParserEngine.ANSI;
+
 	/**
 	 * The ANSI control sequence parser.
 	 */
-	private final AnsiControlSequenceParser parser = new AnsiControlSequenceParser(listener);
+	private ControlSequenceParser parser = parserEngine.createParser(listener);
+
+	/**
+	 * The size of the buffer used by {@link #read(ReadableByteChannel)}.
+	 */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * The buffer used by {@link #read(ReadableByteChannel)}, which is created
+	 * when it is first needed.
+	 */
+	private ByteBuffer readBuffer;
+
+	/**
+	 * A flag indicating if the parser is running, in which case listeners
+	 * are notified once it has finished rather than after every change.
+	 */
+	private boolean parsing = false;
 
 	/**
 	 * The current bell strategy.
@@ -300,9 +618,97 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 	private BellStrategy bellStrategy = new NopBellStrategy();
 
 	/**
-	 * The array of cells.
+	 * The palette.
+	 */
+	private volatile Palette palette = Palette.DEFAULT;
+
+	/**
+	 * The table of colors referenced by the cells. The table is replaced
+	 * rather than changed when the palette changes.
+	 */
+	private ColorTable colors = new ColorTable(palette);
+
+	/**
+	 * The cache of cells returned by {@link #getCell(int, int)}, which is
+	 * replaced along with the {@link #colors} table.
+	 */
+	private TerminalCellCache cellCache = new TerminalCellCache(colors);
+
+	/**
+	 * The table of rows. This is used as a circular buffer of rows, the
+	 * logical first row is found at {@link #firstRow}. Each cell is packed
+	 * into a {@code long} holding the character, the foreground and
+	 * background color indices and the {@link #CELL_PRESENT} flag. An empty
+	 * cell is stored as {@link #EMPTY_CELL}.
+	 * <p>
+	 * Rows are encoded as {@link ColdRow}s when they scroll out of the hot
+	 * window of the last {@link #rows} rows above the cursor, and decoded
+	 * again when they are changed. Every row starts out encoded as
+	 * {@link ColdRow#EMPTY}, so the arrays of cells are only created for
+	 * rows which are printed to.
+	 */
+	private RowTable table;
+
+	/**
+	 * The snapshot epoch in which the array of cells of each row of the
+	 * {@link #table} was created. A row created before the current epoch may
+	 * be shared with a snapshot, so it is copied before it is changed.
+	 */
+	private long[] rowEpochs;
+
+	/**
+	 * The snapshot epoch, which is increased every time a snapshot is taken.
+	 * Snapshots are taken by readers, so this is the only state which they
+	 * change.
+	 */
+	private final AtomicLong epoch = new AtomicLong();
+
+	/**
+	 * The snapshot epoch read at the start of the current write section.
+	 * A snapshot which overlaps a write section is discarded, so the epoch
+	 * only has to be read once per section.
+	 */
+	private long writerEpoch = 0;
+
+	/**
+	 * The most recent snapshot, which is returned again if the model has not
+	 * changed since it was taken.
+	 */
+	private volatile TerminalSnapshot snapshot;
+
+	/**
+	 * The primary screen, which has the scrollback.
+	 */
+	private final Screen primaryScreen = new Screen();
+
+	/**
+	 * The alternate screen, used by full screen applications. Its array of
+	 * cells is created when it is first shown.
+	 */
+	private final Screen alternateScreen = new Screen();
+
+	/**
+	 * The screen which is shown, whose rows are held in the {@link #table}.
+	 */
+	private Screen screen = primaryScreen;
+
+	/**
+	 * The array of cells of the last row encoded by {@link #freeze(int)},
+	 * which is reused by the next row to be decoded, or {@code null}. It is
+	 * only kept if it was not shared with a snapshot.
+	 */
+	private long[] spareRow;
+
+	/**
+	 * The index in the {@link #table} of the first row. Scrolling moves
+	 * this index forward instead of shifting every row in the buffer.
 	 */
-	private TerminalCell[][] cells;
+	private int firstRow = 0;
+
+	/**
+	 * The record of changes to the {@link #table}.
+	 */
+	private DamageTracker damage;
 
 	/**
 	 * The number of columns.
@@ -329,6 +735,16 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 	 */
 	private int cursorColumn = 0;
 
+	/**
+	 * The first row of the scrolling region (inclusive).
+	 */
+	private int marginTop = 0;
+
+	/**
+	 * The last row of the scrolling region (exclusive).
+	 */
+	private int marginBottom;
+
 	/**
 	 * The current foreground bold flag.
 	 */
@@ -349,6 +765,12 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 	 */
 	private int backgroundColor = DEFAULT_BACKGROUND_COLOR;
 
+	/**
+	 * The packed color indices and flags of the current SGR state, which are
+	 * combined with a character to create a cell.
+	 */
+	private long attributes;
+
 	/**
 	 * Creates the terminal model with the default number of columns and rows,
 	 * and the default buffer size.
@@ -388,6 +810,7 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 		this.columns = columns;
 		this.rows = rows;
 		this.bufferSize = bufferSize;
+		this.marginBottom = rows;
 		init();
 	}
 
@@ -395,60 +818,935 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 	 * Initializes the terminal model.
 	 */
 	private void init() {
-		cells = new TerminalCell[bufferSize][columns];
+		table = new RowTable(bufferSize);
+		rowEpochs = new long[bufferSize];
+		firstRow = 0;
+		damage = new DamageTracker(bufferSize, columns);
+		updateAttributes();
 	}
 
-	@Override
-	public int getCursorRow() {
-		return cursorRow;
+	/**
+	 * Clamps a value to the range {@code [0, limit)}.
+	 * @param value The value.
+	 * @param limit The (exclusive) upper limit.
+	 * @return The clamped value.
+	 */
+	private static int clamp(int value, int limit) {
+		if (value < 0) {
+			return 0;
+		} else if (value >= limit) {
+			return limit - 1;
+		}
+		return value;
 	}
 
-	@Override
-	public void setCursorRow(int row) {
-		if (row < 0 || row >= bufferSize) {
-			throw new IllegalArgumentException("row out of range");
-		}
-		cursorRow = row;
+	/**
+	 * Recalculates the packed {@link #attributes} from the current SGR state.
+	 */
+	private void updateAttributes() {
+		int back = (backgroundBold ? ColorTable.BRIGHT_OFFSET : ColorTable.NORMAL_OFFSET) + backgroundColor;
+		int fore = (foregroundBold ? ColorTable.BRIGHT_OFFSET : ColorTable.NORMAL_OFFSET) + foregroundColor;
+		attributes = pack((char) 0, back, fore);
 	}
 
-	@Override
-	public int getCursorColumn() {
-		return cursorColumn;
+	/**
+	 * Packs a character and its colors into a cell.
+	 * @param character The character.
+	 * @param background The background color index.
+	 * @param foreground The foreground color index.
+	 * @return The packed cell.
+	 */
+	private static long pack(char character, int background, int foreground) {
+		return CELL_PRESENT | ((long) background << BACKGROUND_SHIFT) | ((long) foreground << FOREGROUND_SHIFT) | character;
 	}
 
-	@Override
-	public void setCursorColumn(int column) {
-		if (column < 0 || column >= columns) {
-			throw new IllegalArgumentException("column out of range");
+	/**
+	 * Packs a cell, adding its colors to the {@link #colors} table. If the
+	 * table is full, it is rebuilt with only the colors which are still in
+	 * use. If every color is still in use, the closest color in the table is
+	 * used instead.
+	 * @param cell The cell.
+	 * @return The packed cell.
+	 */
+	private long pack(TerminalCell cell) {
+		Color backgroundColor = cell.getBackgroundColor();
+		Color foregroundColor = cell.getForegroundColor();
+		int background = colors.indexOf(backgroundColor);
+		int foreground = colors.indexOf(foregroundColor);
+		if (background == -1 || foreground == -1) {
+			rebuildColors(palette);
+			background = colors.indexOf(backgroundColor);
+			if (background == -1) {
+				background = colors.indexOfNearest(backgroundColor);
+			}
+			foreground = colors.indexOf(foregroundColor);
+			if (foreground == -1) {
+				foreground = colors.indexOfNearest(foregroundColor);
+			}
 		}
-		cursorColumn = column;
+		return pack(cell.getCharacter(), background, foreground);
 	}
 
-	@Override
-	public TerminalCell getCell(int column, int row) {
-		if (column < 0 || row < 0 || column >= columns || row >= bufferSize) {
-			throw new IndexOutOfBoundsException();
-		}
-		return cells[row][column];
+	/**
+	 * Flags the color indices of a packed cell as in use.
+	 * @param cell The packed cell, which may be empty or have no character.
+	 * @param used A flag for each color index.
+	 */
+	static void markColors(long cell, boolean[] used) {
+		used[(int) (cell >>> BACKGROUND_SHIFT) & COLOR_MASK] = true;
+		used[(int) (cell >>> FOREGROUND_SHIFT) & COLOR_MASK] = true;
 	}
 
-	@Override
-	public void setCell(int column, int row, TerminalCell cell) {
-		if (column < 0 || row < 0 || column >= columns || row >= bufferSize) {
-			throw new IndexOutOfBoundsException();
+	/**
+	 * Replaces the color indices of a packed cell.
+	 * @param cell The packed cell, which may be empty or have no character.
+	 * @param indices The new index of each color index.
+	 * @return The packed cell with the new indices.
+	 */
+	static long remapColors(long cell, int[] indices) {
+		int background = indices[(int) (cell >>> BACKGROUND_SHIFT) & COLOR_MASK];
+		int foreground = indices[(int) (cell >>> FOREGROUND_SHIFT) & COLOR_MASK];
+		cell &= ~(((long) COLOR_MASK << BACKGROUND_SHIFT) | ((long) COLOR_MASK << FOREGROUND_SHIFT));
+		return cell | ((long) background << BACKGROUND_SHIFT) | ((long) foreground << FOREGROUND_SHIFT);
+	}
+
+	/**
+	 * Gets the index in the {@link #table} of the specified (logical)
+	 * row.
+	 * @param row The row.
+	 * @return The index.
+	 */
+	private int index(int row) {
+		int index = firstRow + row;
+		if (index >= bufferSize) {
+			index -= bufferSize;
 		}
-		cells[row][column] = cell;
+		return index;
 	}
 
-	@Override
-	public void print(String str) {
-		if (str == null) {
-			throw new NullPointerException("str");
+	/**
+	 * Gets a packed cell, whether its row is encoded or not. This does not
+	 * fail if the row is changed by a concurrent write section, so it may be
+	 * called by an optimistic read.
+	 * @param index The index of the row in the {@link #table}.
+	 * @param column The column.
+	 * @return The packed cell.
+	 */
+	private long cell(int index, int column) {
+		long[] array = table.getCells(index);
+		if (array != null) {
+			return array[column];
 		}
-		parser.parse(str);
+		ColdRow cold = table.getColdRow(index);
+		return cold == null ? EMPTY_CELL : cold.getCell(column);
 	}
 
-	@Override
+	/**
+	 * Gets the array of cells in the specified (logical) row, so that it can
+	 * be changed. If the row is encoded it is decoded first, and if the array
+	 * may be shared with a snapshot, it is replaced with a copy first.
+	 * @param row The row.
+	 * @return The array of cells.
+	 */
+	private long[] writableRow(int row) {
+		int index = index(row);
+		long[] array = table.getCells(index);
+		if (array == null) {
+			array = thaw(index);
+		} else if (rowEpochs[index] != writerEpoch) {
+			array = array.clone();
+			table.set(index, array, null, writerEpoch);
+			rowEpochs[index] = writerEpoch;
+		}
+		return array;
+	}
+
+	/**
+	 * Clears the specified (logical) row. If the row is encoded, or its array
+	 * of cells may be shared with a snapshot, it is replaced with an encoded
+	 * empty row rather than copied.
+	 * @param row The row.
+	 */
+	private void clearRow(int row) {
+		int index = index(row);
+		long[] array = table.getCells(index);
+		if (array == null || rowEpochs[index] != writerEpoch) {
+			table.set(index, null, ColdRow.EMPTY, writerEpoch);
+		} else {
+			Arrays.fill(array, EMPTY_CELL);
+		}
+	}
+
+	/**
+	 * Decodes an encoded row into an array of cells, so that it can be
+	 * changed.
+	 * @param index The index of the row in the {@link #table}.
+	 * @return The array of cells.
+	 */
+	private long[] thaw(int index) {
+		long[] array = spareRow;
+		if (array == null) {
+			array = new long[columns];
+		}
+		spareRow = null;
+		table.getColdRow(index).decode(array);
+		table.set(index, array, null, writerEpoch);
+		rowEpochs[index] = writerEpoch;
+		return array;
+	}
+
+	/**
+	 * Encodes the specified (logical) row, if it is not encoded already. Its
+	 * contents do not change, so it is not damaged.
+	 * @param row The row.
+	 */
+	private void freeze(int row) {
+		int index = index(row);
+		long[] array = table.getCells(index);
+		if (array == null) {
+			return;
+		}
+		table.set(index, null, ColdRow.encode(array), writerEpoch);
+		if (rowEpochs[index] == writerEpoch) {
+			spareRow = array;
+		}
+	}
+
+	/**
+	 * Sets every cell in a rectangular region to the same packed cell, a row
+	 * at a time. Rows which are cleared completely are replaced rather than
+	 * copied if they are shared with a snapshot. The region is not checked,
+	 * except that rows past the end of the buffer are skipped: the cursor is
+	 * left on the row after the last one by a line feed, and the row does not
+	 * exist until the buffer scrolls when the next character is printed.
+	 * @param column The first column of the region.
+	 * @param row The first (logical) row of the region.
+	 * @param width The number of columns in the region.
+	 * @param height The number of rows in the region.
+	 * @param value The packed cell.
+	 */
+	private void fill(int column, int row, int width, int height, long value) {
+		if (width == 0) {
+			return;
+		}
+		int end = Math.min(row + height, bufferSize);
+		for (int y = row; y < end; y++) {
+			if (width == columns && value == EMPTY_CELL) {
+				clearRow(y);
+			} else {
+				Arrays.fill(writableRow(y), column, column + width, value);
+			}
+			damage.damage(index(y), column, column + width);
+		}
+	}
+
+	/**
+	 * Copies the cells in a rectangular region to another region of the same
+	 * size, which may overlap it. Whole rows are copied by sharing their
+	 * arrays of cells, which are then copied when either row is next
+	 * changed. The regions are not checked.
+	 * @param column The first column of the source region.
+	 * @param row The first (logical) row of the source region.
+	 * @param width The number of columns in the regions.
+	 * @param height The number of rows in the regions.
+	 * @param toColumn The first column of the destination region.
+	 * @param toRow The first (logical) row of the destination region.
+	 */
+	private void copy(int column, int row, int width, int height, int toColumn, int toRow) {
+		if (width == 0) {
+			return;
+		}
+		// rows are copied in the order which reads each before it is written
+		boolean up = toRow <= row;
+		for (int i = 0; i < height; i++) {
+			int offset = up ? i : height - 1 - i;
+			int from = index(row + offset), to = index(toRow + offset);
+			if (width == columns) {
+				if (from != to) {
+					table.set(to, table.getCells(from), table.getColdRow(from), writerEpoch);
+					rowEpochs[to] = SHARED_ROW;
+					rowEpochs[from] = SHARED_ROW;
+				}
+			} else {
+				long[] destination = writableRow(toRow + offset);
+				long[] source = table.getCells(from);
+				if (source == null) {
+					source = new long[columns];
+					table.getColdRow(from).decode(source);
+				}
+				System.arraycopy(source, column, destination, toColumn, width);
+			}
+			damage.damage(to, toColumn, toColumn + width);
+		}
+	}
+
+	/**
+	 * Checks if the scrolling region is smaller than the screen.
+	 * @return {@code true} if so, {@code false} if not.
+	 */
+	private boolean hasMargins() {
+		return marginTop != 0 || marginBottom != rows;
+	}
+
+	/**
+	 * Moves the cursor down a row. At the bottom of the scrolling region,
+	 * the region is scrolled instead. Otherwise, if the cursor is on the
+	 * last row of the buffer it is moved just past it, and the buffer is
+	 * scrolled when the next character is printed. The row which leaves the
+	 * hot window above the cursor is encoded.
+	 */
+	private void lineFeed() {
+		if (cursorRow == marginBottom - 1 && hasMargins()) {
+			scrollRegion(marginTop, marginBottom, 1);
+		} else if (cursorRow < bufferSize) {
+			cursorRow++;
+			if (cursorRow > rows) {
+				freeze(cursorRow - rows - 1);
+			}
+		}
+	}
+
+	/**
+	 * Scrolls the rows in a region, discarding those which are scrolled out
+	 * of it and clearing those which are scrolled into it. The rows are moved
+	 * by rotating the references to their arrays of cells, so no cells are
+	 * copied. Every row in the region is damaged.
+	 * @param top The first row of the region (inclusive).
+	 * @param bottom The last row of the region (exclusive).
+	 * @param n The number of rows to scroll up by, or if negative, down by.
+	 */
+	private void scrollRegion(int top, int bottom, int n) {
+		int height = bottom - top;
+		int distance = Math.min(Math.abs(n), height);
+		if (distance == 0) {
+			return;
+		}
+
+		/*
+		 * the rows are rotated in place, one cycle of the rotation at a time,
+		 * so the rows which are scrolled out of the region are reused for the
+		 * rows which are scrolled into it without a temporary array
+		 */
+		int shift = (n > 0 ? distance : height - distance) % height;
+		if (shift != 0) {
+			int cycles = gcd(height, shift);
+			for (int start = 0; start < cycles; start++) {
+				int startIndex = index(top + start);
+				long[] cells = table.getCells(startIndex);
+				ColdRow coldRow = table.getColdRow(startIndex);
+				long rowEpoch = rowEpochs[startIndex];
+
+				int row = start;
+				for (;;) {
+					int next = row + shift;
+					if (next >= height) {
+						next -= height;
+					}
+					if (next == start) {
+						break;
+					}
+					moveRow(top + next, top + row);
+					row = next;
+				}
+
+				int index = index(top + row);
+				table.set(index, cells, coldRow, writerEpoch);
+				rowEpochs[index] = rowEpoch;
+			}
+		}
+
+		int reused = n > 0 ? bottom - distance : top;
+		for (int row = reused; row < reused + distance; row++) {
+			clearRow(row);
+		}
+
+		for (int row = top; row < bottom; row++) {
+			damage.damage(index(row));
+		}
+	}
+
+	/**
+	 * Calculates the greatest common divisor of two positive integers.
+	 * @param a The first integer.
+	 * @param b The second integer.
+	 * @return The greatest common divisor.
+	 */
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int remainder = a % b;
+			a = b;
+			b = remainder;
+		}
+		return a;
+	}
+
+	/**
+	 * Moves the array of cells of one (logical) row to another.
+	 * @param from The row to move from.
+	 * @param to The row to move to.
+	 */
+	private void moveRow(int from, int to) {
+		int fromIndex = index(from), toIndex = index(to);
+		table.set(toIndex, table.getCells(fromIndex), table.getColdRow(fromIndex), writerEpoch);
+		rowEpochs[toIndex] = rowEpochs[fromIndex];
+	}
+
+	/**
+	 * Scrolls the buffer up by one row, discarding the first row and clearing
+	 * the last. This takes time proportional to the number of columns only.
+	 */
+	private void scroll() {
+		if (++firstRow == bufferSize) {
+			firstRow = 0;
+		}
+		fill(0, bufferSize - 1, columns, 1, EMPTY_CELL);
+		damage.scrolled();
+	}
+
+	/**
+	 * Shows the primary or alternate screen. The tables of rows are swapped
+	 * rather than copied, so this takes time proportional to the buffer size
+	 * only, and the rows of the hidden screen are kept unchanged until it is
+	 * shown again. The cursor and the scrolling region are shared by both
+	 * screens. Every row is damaged, as a renderer only draws the rows in its
+	 * viewport again.
+	 * @param to The screen to show.
+	 */
+	private void switchScreen(Screen to) {
+		if (to == screen) {
+			return;
+		}
+		if (to.table == null) {
+			clearAlternateScreen();
+		}
+
+		screen.table = table;
+		screen.rowEpochs = rowEpochs;
+		screen.firstRow = firstRow;
+
+		table = to.table;
+		rowEpochs = to.rowEpochs;
+		firstRow = to.firstRow;
+		to.table = null;
+		to.rowEpochs = null;
+		screen = to;
+
+		for (int index = 0; index < bufferSize; index++) {
+			damage.damage(index);
+		}
+	}
+
+	/**
+	 * Replaces the {@link #colors} table with a table of the colors of a
+	 * palette and the other colors which are still in use by either screen,
+	 * and changes the color indices of every cell to match. Rows which may be
+	 * shared with a snapshot are copied first, as the snapshot keeps the old
+	 * table. The colors of the cells do not change, so they are not damaged.
+	 * @param palette The palette.
+	 */
+	private void rebuildColors(Palette palette) {
+		Screen hidden = screen == primaryScreen ? alternateScreen : primaryScreen;
+		boolean[] used = new boolean[colors.size()];
+		boolean custom = colors.size() > ColorTable.CUSTOM_OFFSET;
+		if (custom) {
+			markColors(table, used);
+			if (hidden.table != null) {
+				markColors(hidden.table, used);
+			}
+		}
+
+		int[] indices = new int[used.length];
+		colors = colors.withPalette(palette, used, indices);
+		cellCache = new TerminalCellCache(colors);
+
+		if (custom) {
+			remapColors(table, rowEpochs, indices);
+			if (hidden.table != null) {
+				remapColors(hidden.table, hidden.rowEpochs, indices);
+			}
+		}
+	}
+
+	/**
+	 * Flags the color indices used by the cells of a table of rows.
+	 * @param table The table of rows.
+	 * @param used A flag for each color index.
+	 */
+	private static void markColors(RowTable table, boolean[] used) {
+		for (int index = 0; index < table.size(); index++) {
+			long[] array = table.getCells(index);
+			if (array == null) {
+				table.getColdRow(index).markColors(used);
+			} else {
+				for (int column = 0; column < array.length; column++) {
+					markColors(array[column], used);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the color indices of the cells of a table of rows. Rows which
+	 * may be shared with a snapshot are copied before they are changed.
+	 * @param table The table of rows.
+	 * @param rowEpochs The snapshot epoch of each row.
+	 * @param indices The new index of each color index.
+	 */
+	private void remapColors(RowTable table, long[] rowEpochs, int[] indices) {
+		for (int index = 0; index < table.size(); index++) {
+			long[] array = table.getCells(index);
+			if (array == null) {
+				ColdRow cold = table.getColdRow(index);
+				ColdRow remapped = cold.remapColors(indices);
+				if (remapped != cold) {
+					table.set(index, null, remapped, writerEpoch);
+				}
+				continue;
+			}
+			for (int column = 0; column < array.length; column++) {
+				long cell = remapColors(array[column], indices);
+				if (cell != array[column]) {
+					if (rowEpochs[index] != writerEpoch) {
+						array = array.clone();
+						table.set(index, array, null, writerEpoch);
+						rowEpochs[index] = writerEpoch;
+					}
+					array[column] = cell;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Clears the alternate screen while it is hidden, by replacing every row
+	 * with an encoded empty row.
+	 */
+	private void clearAlternateScreen() {
+		Screen alternate = alternateScreen;
+		alternate.table = new RowTable(bufferSize);
+		if (alternate.rowEpochs == null) {
+			alternate.rowEpochs = new long[bufferSize];
+		}
+		alternate.firstRow = 0;
+	}
+
+	/**
+	 * Starts a write section, waiting for any other writer to finish first.
+	 * If the current thread is already in a write section, this does nothing.
+	 * @return The stamp which ends the section, or zero if the current thread
+	 * was already in a write section.
+	 */
+	private long beginWrite() {
+		Thread current = Thread.currentThread();
+		if (writer == current) {
+			return 0;
+		}
+		long stamp = lock.writeLock();
+		writer = current;
+		writerEpoch = epoch.get();
+		damage.setEpoch(writerEpoch);
+		return stamp;
+	}
+
+	/**
+	 * Ends a write section.
+	 * @param stamp The stamp returned by {@link #beginWrite()}.
+	 */
+	private void endWrite(long stamp) {
+		if (stamp != 0) {
+			writer = null;
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Starts an optimistic read.
+	 * @return A stamp to validate the read with, or zero if a write section
+	 * is in progress.
+	 */
+	private long beginRead() {
+		if (writer == Thread.currentThread()) {
+			return WRITER_STAMP;
+		}
+		return lock.tryOptimisticRead();
+	}
+
+	/**
+	 * Checks that no write section started or was in progress since an
+	 * optimistic read began.
+	 * @param stamp The stamp returned by {@link #beginRead()}.
+	 * @return {@code true} if the values read are consistent, {@code false}
+	 * if they must be read again with {@link #lockRead()}.
+	 */
+	private boolean validate(long stamp) {
+		return stamp == WRITER_STAMP || (stamp != 0 && lock.validate(stamp));
+	}
+
+	/**
+	 * Waits for any write section to finish and prevents another from
+	 * starting, if an optimistic read failed.
+	 * @return The stamp which ends the read.
+	 */
+	private long lockRead() {
+		if (writer == Thread.currentThread()) {
+			return WRITER_STAMP;
+		}
+		return lock.readLock();
+	}
+
+	/**
+	 * Allows write sections to start again after {@link #lockRead()}.
+	 * @param stamp The stamp returned by {@link #lockRead()}.
+	 */
+	private void unlockRead(long stamp) {
+		if (stamp != WRITER_STAMP) {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public int getCursorRow() {
+		long stamp = beginRead();
+		int row = cursorRow;
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				row = cursorRow;
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return row;
+	}
+
+	@Override
+	public void setCursorRow(int row) {
+		if (row < 0 || row >= bufferSize) {
+			throw new IllegalArgumentException("row out of range");
+		}
+		boolean fire;
+		long stamp = beginWrite();
+		try {
+			cursorRow = row;
+			fire = !parsing;
+		} finally {
+			endWrite(stamp);
+		}
+		if (fire) {
+			fireModelChanged();
+		}
+	}
+
+	@Override
+	public int getCursorColumn() {
+		long stamp = beginRead();
+		int column = cursorColumn;
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				column = cursorColumn;
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return column;
+	}
+
+	@Override
+	public void setCursorColumn(int column) {
+		if (column < 0 || column >= columns) {
+			throw new IllegalArgumentException("column out of range");
+		}
+		boolean fire;
+		long stamp = beginWrite();
+		try {
+			cursorColumn = column;
+			fire = !parsing;
+		} finally {
+			endWrite(stamp);
+		}
+		if (fire) {
+			fireModelChanged();
+		}
+	}
+
+	@Override
+	public TerminalCell getCell(int column, int row) {
+		if (column < 0 || row < 0 || column >= columns || row >= bufferSize) {
+			throw new IndexOutOfBoundsException();
+		}
+		long stamp = beginRead();
+		long cell = cell(index(row), column);
+		TerminalCellCache cache = cellCache;
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				cell = cell(index(row), column);
+				cache = cellCache;
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		if (cell == EMPTY_CELL) {
+			return null;
+		}
+		char character = (char) (cell & CHARACTER_MASK);
+		int background = (int) (cell >>> BACKGROUND_SHIFT) & COLOR_MASK;
+		int foreground = (int) (cell >>> FOREGROUND_SHIFT) & COLOR_MASK;
+		return cache.get(character, background, foreground);
+	}
+
+	@Override
+	public void setCell(int column, int row, TerminalCell cell) {
+		if (column < 0 || row < 0 || column >= columns || row >= bufferSize) {
+			throw new IndexOutOfBoundsException();
+		}
+		boolean fire;
+		long stamp = beginWrite();
+		try {
+			if (cell == null) {
+				writableRow(row)[column] = EMPTY_CELL;
+			} else {
+				long value = pack(cell);
+				writableRow(row)[column] = value;
+			}
+			damage.damage(index(row), column, column + 1);
+			fire = !parsing;
+		} finally {
+			endWrite(stamp);
+		}
+		if (fire) {
+			fireModelChanged();
+		}
+	}
+
+	@Override
+	public void fillRegion(int column, int row, int width, int height, TerminalCell cell) {
+		checkRegion(column, row, width, height);
+		boolean fire;
+		long stamp = beginWrite();
+		try {
+			long value = EMPTY_CELL;
+			if (cell != null) {
+				value = pack(cell);
+			}
+			fill(column, row, width, height, value);
+			fire = !parsing;
+		} finally {
+			endWrite(stamp);
+		}
+		if (fire) {
+			fireModelChanged();
+		}
+	}
+
+	@Override
+	public void copyRegion(int column, int row, int width, int height, int toColumn, int toRow) {
+		checkRegion(column, row, width, height);
+		checkRegion(toColumn, toRow, width, height);
+		boolean fire;
+		long stamp = beginWrite();
+		try {
+			copy(column, row, width, height, toColumn, toRow);
+			fire = !parsing;
+		} finally {
+			endWrite(stamp);
+		}
+		if (fire) {
+			fireModelChanged();
+		}
+	}
+
+	@Override
+	public void print(String str) {
+		if (str == null) {
+			throw new NullPointerException("str");
+		}
+		long stamp = beginWrite();
+		parsing = true;
+		try {
+			parser.parse(str);
+		} finally {
+			parsing = false;
+			endWrite(stamp);
+		}
+		fireModelChanged();
+	}
+
+	/**
+	 * Writes UTF-8 encoded bytes to the terminal at the cursor position,
+	 * interpreting any escape sequences/special ASCII codes in the same way
+	 * as {@link #print(String)}. All of the remaining bytes in the buffer are
+	 * consumed. A character or escape sequence split across the end of the
+	 * buffer is completed by the next call.
+	 * @param buf The buffer.
+	 * @throws NullPointerException if the buffer is {@code null}.
+	 */
+	public void write(ByteBuffer buf) {
+		if (buf == null) {
+			throw new NullPointerException("buf");
+		}
+		long stamp = beginWrite();
+		parsing = true;
+		try {
+			parser.parse(buf);
+		} finally {
+			parsing = false;
+			endWrite(stamp);
+		}
+		fireModelChanged();
+	}
+
+	/**
+	 * Reads UTF-8 encoded bytes from the channel, with a single call to
+	 * {@link ReadableByteChannel#read(ByteBuffer)}, and writes them to the
+	 * terminal with {@link #write(ByteBuffer)}.
+	 * @param channel The channel.
+	 * @return The number of bytes read, or {@code -1} if the channel has
+	 * reached the end of the stream.
+	 * @throws NullPointerException if the channel is {@code null}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		if (channel == null) {
+			throw new NullPointerException("channel");
+		}
+		if (readBuffer == null) {
+			readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		}
+		readBuffer.clear();
+		int n = channel.read(readBuffer);
+		if (n > 0) {
+			readBuffer.flip();
+			write(readBuffer);
+		}
+		return n;
+	}
+
+	/**
+	 * Gets the type of parser used to interpret printed text.
+	 * @return The parser engine.
+	 */
+	public ParserEngine getParserEngine() {
+		long stamp = lockRead();
+		try {
+			return parserEngine;
+		} finally {
+			unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Sets the type of parser used to interpret printed text. Any incomplete
+	 * escape sequence held by the current parser is discarded.
+	 * @param engine The parser engine.
+	 * @throws NullPointerException if the engine is {@code null}.
+	 */
+	public void setParserEngine(ParserEngine engine) {
+		if (engine == null) {
+			throw new NullPointerException("engine");
+		}
+		long stamp = beginWrite();
+		try {
+			if (engine != parserEngine) {
+				int maximumSequenceLength = parser.getMaximumSequenceLength();
+				parserEngine = engine;
+				parser = engine.createParser(listener);
+				parser.setMaximumSequenceLength(maximumSequenceLength);
+			}
+		} finally {
+			endWrite(stamp);
+		}
+	}
+
+	/**
+	 * Gets the maximum length of an escape sequence.
+	 * @return The maximum length.
+	 */
+	public int getMaximumSequenceLength() {
+		long stamp = lockRead();
+		try {
+			return parser.getMaximumSequenceLength();
+		} finally {
+			unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Sets the maximum length of an escape sequence, not counting the
+	 * introducer and final characters. Longer sequences are aborted and
+	 * ignored, which bounds the memory and time spent on hostile or corrupt
+	 * input.
+	 * @param length The maximum length.
+	 * @throws IllegalArgumentException if the length is not positive.
+	 */
+	public void setMaximumSequenceLength(int length) {
+		long stamp = beginWrite();
+		try {
+			parser.setMaximumSequenceLength(length);
+		} finally {
+			endWrite(stamp);
+		}
+	}
+
+	/**
+	 * Gets the number of escape sequences which have been aborted because
+	 * they were longer than the maximum length. The count is not preserved
+	 * when the parser engine is changed.
+	 * @return The number of aborted sequences.
+	 */
+	public long getAbortedSequenceCount() {
+		long stamp = lockRead();
+		try {
+			return parser.getAbortedSequences();
+		} finally {
+			unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Checks if the alternate screen is shown. Full screen applications show
+	 * it with the {@code CSI ?1049h} control sequence, and the primary screen
+	 * and its scrollback are shown again unchanged when they finish.
+	 * @return {@code true} if the alternate screen is shown, {@code false} if
+	 * the primary screen is shown.
+	 */
+	public boolean isAlternateScreen() {
+		long stamp = beginRead();
+		boolean alternate = screen == alternateScreen;
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				alternate = screen == alternateScreen;
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return alternate;
+	}
+
+	/**
+	 * Gets an estimate of the number of bytes of memory used to store the
+	 * cells of both screens, assuming a 64-bit virtual machine with
+	 * compressed references. An array of cells shared by several rows or
+	 * snapshots is counted once for each row.
+	 * @return The number of bytes.
+	 */
+	public long getMemoryUsage() {
+		long stamp = lockRead();
+		try {
+			long size = table.getMemoryUsage() + ColdRow.align(16 + rowEpochs.length * 8L);
+			Screen hidden = screen == primaryScreen ? alternateScreen : primaryScreen;
+			if (hidden.table != null) {
+				size += hidden.table.getMemoryUsage() + ColdRow.align(16 + hidden.rowEpochs.length * 8L);
+			}
+			return size;
+		} finally {
+			unlockRead(stamp);
+		}
+	}
+
+	@Override
 	public int getColumns() {
 		return columns;
 	}
@@ -476,16 +1774,260 @@ public class Vt100TerminalModel extends AbstractTerminalModel {
 		this.bellStrategy = strategy;
 	}
 
+	/**
+	 * Gets the palette.
+	 * @return The palette.
+	 */
+	public Palette getPalette() {
+		return palette;
+	}
+
+	/**
+	 * Sets the palette. Cells refer to the colors of the palette by index,
+	 * so every cell printed with an SGR color changes to the color at the
+	 * same index of the new palette, as do the default colors. Cells set
+	 * with other colors keep them.
+	 * @param palette The palette.
+	 * @throws NullPointerException if the palette is {@code null}.
+	 */
+	public void setPalette(Palette palette) {
+		if (palette == null) {
+			throw new NullPointerException("palette");
+		}
+		boolean fire;
+		long stamp = beginWrite();
+		try {
+			if (palette.equals(this.palette)) {
+				return;
+			}
+			this.palette = palette;
+			rebuildColors(palette);
+			for (int index = 0; index < bufferSize; index++) {
+				damage.damage(index);
+			}
+			fire = !parsing;
+		} finally {
+			endWrite(stamp);
+		}
+		if (fire) {
+			fireModelChanged();
+		}
+	}
+
+	/**
+	 * Gets the number of times {@link #getCell(int, int)} returned a cached
+	 * {@link TerminalCell}. The count starts again when the palette is
+	 * changed or the table of colors is rebuilt.
+	 * @return The number of cell cache hits.
+	 */
+	public long getCellCacheHits() {
+		return cellCache.getHits();
+	}
+
+	/**
+	 * Gets the number of times {@link #getCell(int, int)} had to create a new
+	 * {@link TerminalCell}. The count starts again when the palette is
+	 * changed or the table of colors is rebuilt.
+	 * @return The number of cell cache misses.
+	 */
+	public long getCellCacheMisses() {
+		return cellCache.getMisses();
+	}
+
+	/**
+	 * Gets the generation of the buffer. The generation increases every time
+	 * a cell is changed or the buffer is scrolled, so a renderer which has
+	 * remembered the generation it last drew can find the rows which have
+	 * changed since with {@link #getRowGeneration(int)}.
+	 * @return The generation.
+	 */
+	@Override
+	public long getGeneration() {
+		long stamp = beginRead();
+		long generation = damage.getGeneration();
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				generation = damage.getGeneration();
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return generation;
+	}
+
+	/**
+	 * Gets the number of rows the buffer has scrolled by since the model was
+	 * created. Scrolling moves every row up, so a renderer should shift
+	 * what it has already drawn up by the difference between this count and
+	 * the count when it last drew.
+	 * @return The scroll count.
+	 */
+	@Override
+	public long getScrollCount() {
+		long stamp = beginRead();
+		long scrollCount = damage.getScrollCount();
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				scrollCount = damage.getScrollCount();
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return scrollCount;
+	}
+
+	/**
+	 * Gets the generation at which a row last changed. A row which has been
+	 * scrolled but not otherwise changed keeps its generation.
+	 * @param row The row.
+	 * @return The generation.
+	 * @throws IndexOutOfBoundsException if the row is out of range.
+	 */
+	@Override
+	public long getRowGeneration(int row) {
+		if (row < 0 || row >= bufferSize) {
+			throw new IndexOutOfBoundsException();
+		}
+		long stamp = beginRead();
+		long generation = damage.getGeneration(index(row));
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				generation = damage.getGeneration(index(row));
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return generation;
+	}
+
+	/**
+	 * Gets the first column of a row which has changed since the damage was
+	 * last cleared. If the row has not changed, this is greater than or equal
+	 * to {@link #getDamageEnd(int)}.
+	 * @param row The row.
+	 * @return The first damaged column (inclusive).
+	 * @throws IndexOutOfBoundsException if the row is out of range.
+	 */
+	public int getDamageStart(int row) {
+		if (row < 0 || row >= bufferSize) {
+			throw new IndexOutOfBoundsException();
+		}
+		long stamp = beginRead();
+		int start = damage.getStart(index(row));
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				start = damage.getStart(index(row));
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Gets the last column of a row which has changed since the damage was
+	 * last cleared.
+	 * @param row The row.
+	 * @return The last damaged column (exclusive).
+	 * @throws IndexOutOfBoundsException if the row is out of range.
+	 */
+	public int getDamageEnd(int row) {
+		if (row < 0 || row >= bufferSize) {
+			throw new IndexOutOfBoundsException();
+		}
+		long stamp = beginRead();
+		int end = damage.getEnd(index(row));
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				end = damage.getEnd(index(row));
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Clears the ranges of damaged columns returned by
+	 * {@link #getDamageStart(int)} and {@link #getDamageEnd(int)}, once they
+	 * have been redrawn. The generation and the scroll count are unaffected.
+	 */
+	public void clearDamage() {
+		long stamp = beginWrite();
+		try {
+			damage.clear();
+		} finally {
+			endWrite(stamp);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the buffer, including the scrollback, the cursor
+	 * and the record of which rows have changed. The snapshot is consistent,
+	 * as it is validated in the same way as any other read, and it does not
+	 * change afterwards, so it may be read on any thread while the model
+	 * continues to be printed to.
+	 * <p>
+	 * The rows of the buffer are shared with the snapshot rather than copied.
+	 * Only the tables of chunks are copied, so taking a snapshot costs time
+	 * proportional to the buffer size divided by {@link RowTable#CHUNK_SIZE}.
+	 * A chunk, and a row within it, is copied when it is next changed, at
+	 * most once per snapshot. If the model has not changed since the last
+	 * snapshot, the same snapshot is returned.
+	 * @return The snapshot.
+	 */
+	public TerminalSnapshot snapshot() {
+		long stamp = beginRead();
+		TerminalSnapshot result = takeSnapshot();
+		if (!validate(stamp)) {
+			stamp = lockRead();
+			try {
+				result = takeSnapshot();
+			} finally {
+				unlockRead(stamp);
+			}
+		}
+		snapshot = result;
+		return result;
+	}
+
+	/**
+	 * Takes a snapshot, or reuses the most recent one if the model has not
+	 * changed since. The snapshot epoch is increased before the rows are
+	 * read, so any rows in the snapshot are copied by the next write section
+	 * before they are changed.
+	 * @return The snapshot, which must be discarded if the read is not
+	 * valid.
+	 */
+	private TerminalSnapshot takeSnapshot() {
+		TerminalSnapshot last = snapshot;
+		long generation = damage.getGeneration();
+		if (last != null && last.getGeneration() == generation
+				&& last.getCursorRow() == cursorRow && last.getCursorColumn() == cursorColumn) {
+			return last;
+		}
+
+		epoch.incrementAndGet();
+		return new TerminalSnapshot(table.snapshot(), firstRow, damage.getGenerations(), columns, rows,
+			cursorRow, cursorColumn, generation, damage.getScrollCount(), colors.array(),
+			cellCache, getDefaultBackgroundColor(), getDefaultForegroundColor());
+	}
+
 	@Override
 	public Color getDefaultBackgroundColor() {
 		final int bg = DEFAULT_BACKGROUND_COLOR;
-		return DEFAULT_BACKGROUND_BOLD ? SgrColor.COLOR_BRIGHT[bg] : SgrColor.COLOR_NORMAL[bg];
+		return palette.getColor(bg, DEFAULT_BACKGROUND_BOLD);
 	}
 
 	@Override
 	public Color getDefaultForegroundColor() {
 		final int fg = DEFAULT_FOREGROUND_COLOR;
-		return DEFAULT_FOREGROUND_BOLD ? SgrColor.COLOR_BRIGHT[fg] : SgrColor.COLOR_NORMAL[fg];
+		return palette.getColor(fg, DEFAULT_FOREGROUND_BOLD);
 	}
 
 
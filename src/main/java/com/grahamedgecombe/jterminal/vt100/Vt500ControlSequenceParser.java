@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+/**
+ * A {@link ControlSequenceParser} driven by a precomputed state transition
+ * table, following the structure of the DEC VT500-series parser described by
+ * Paul Williams at <a href="http://vt100.net/emu/dec_ansi_parser">
+ * vt100.net</a>.
+ * <p>
+ * Unlike the {@link AnsiControlSequenceParser}, this parser understands
+ * escape sequences with intermediates, the C1 controls and the OSC, DCS, SOS,
+ * PM and APC strings. C0 controls embedded in a sequence are executed without
+ * interrupting it. The contents of control strings are consumed and discarded,
+ * and sequences longer than the maximum sequence length are skipped, so the
+ * memory used by the parser is bounded whatever the input.
+ * <p>
+ * Each character costs a single table lookup: the table is indexed by the
+ * current state and the character, and yields the action to perform and the
+ * next state.
+ * @author Graham Edgecombe
+ */
+class Vt500ControlSequenceParser extends AbstractControlSequenceParser {
+
+	/**
+	 * The ground state, in which characters are printed.
+	 */
+	private static final int STATE_GROUND = 0;
+
+	/**
+	 * The state after an escape character.
+	 */
+	private static final int STATE_ESCAPE = 1;
+
+	/**
+	 * The state after an escape character and an intermediate character.
+	 */
+	private static final int STATE_ESCAPE_INTERMEDIATE = 2;
+
+	/**
+	 * The state after a control sequence introducer.
+	 */
+	private static final int STATE_CSI_ENTRY = 3;
+
+	/**
+	 * The state when parsing the parameters of a control sequence.
+	 */
+	private static final int STATE_CSI_PARAM = 4;
+
+	/**
+	 * The state when parsing the intermediates of a control sequence.
+	 */
+	private static final int STATE_CSI_INTERMEDIATE = 5;
+
+	/**
+	 * The state when skipping the remainder of a malformed control sequence.
+	 */
+	private static final int STATE_CSI_IGNORE = 6;
+
+	/**
+	 * The state after a device control string introducer.
+	 */
+	private static final int STATE_DCS_ENTRY = 7;
+
+	/**
+	 * The state when parsing the parameters of a device control string.
+	 */
+	private static final int STATE_DCS_PARAM = 8;
+
+	/**
+	 * The state when parsing the intermediates of a device control string.
+	 */
+	private static final int STATE_DCS_INTERMEDIATE = 9;
+
+	/**
+	 * The state when consuming the data of a device control string.
+	 */
+	private static final int STATE_DCS_PASSTHROUGH = 10;
+
+	/**
+	 * The state when skipping the remainder of a malformed device control
+	 * string.
+	 */
+	private static final int STATE_DCS_IGNORE = 11;
+
+	/**
+	 * The state when consuming an operating system command string.
+	 */
+	private static final int STATE_OSC_STRING = 12;
+
+	/**
+	 * The state when consuming a SOS, PM or APC string.
+	 */
+	private static final int STATE_SOS_PM_APC_STRING = 13;
+
+	/**
+	 * The state when skipping the remainder of an escape sequence which is
+	 * too long.
+	 */
+	private static final int STATE_ESCAPE_IGNORE = 14;
+
+	/**
+	 * The number of states.
+	 */
+	private static final int STATES = 15;
+
+	/**
+	 * The next state value of a transition which does not change the state.
+	 */
+	private static final int STAY = 15;
+
+	/**
+	 * The action which does nothing.
+	 */
+	private static final int ACTION_IGNORE = 0;
+
+	/**
+	 * The action which prints a character.
+	 */
+	private static final int ACTION_PRINT = 1;
+
+	/**
+	 * The action which executes a control character.
+	 */
+	private static final int ACTION_EXECUTE = 2;
+
+	/**
+	 * The action which adds a parameter, prefix or intermediate character to
+	 * the current sequence.
+	 */
+	private static final int ACTION_COLLECT = 3;
+
+	/**
+	 * The action which dispatches an escape sequence.
+	 */
+	private static final int ACTION_ESC_DISPATCH = 4;
+
+	/**
+	 * The action which dispatches a control sequence.
+	 */
+	private static final int ACTION_CSI_DISPATCH = 5;
+
+	/**
+	 * The number of character classes: one for each character below
+	 * {@code 0xA0} and one for every other character.
+	 */
+	private static final int CLASSES = 0xA1;
+
+	/**
+	 * The character class of characters at or above {@code 0xA0}.
+	 */
+	private static final int CLASS_OTHER = 0xA0;
+
+	/**
+	 * The transition table, indexed by {@code state * CLASSES + class}. Each
+	 * entry holds the action in the upper four bits and the next state (or
+	 * {@link #STAY}) in the lower four bits.
+	 */
+	private static final byte[] TABLE = new byte[STATES * CLASSES];
+
+	static {
+		for (int state = 0; state < STATES; state++) {
+			range(state, 0x00, CLASS_OTHER, ACTION_IGNORE, STAY);
+
+			// transitions which apply in every state
+			set(state, 0x18, ACTION_EXECUTE, STATE_GROUND);
+			set(state, 0x1A, ACTION_EXECUTE, STATE_GROUND);
+			set(state, 0x1B, ACTION_IGNORE, STATE_ESCAPE);
+			range(state, 0x80, 0x8F, ACTION_EXECUTE, STATE_GROUND);
+			set(state, 0x90, ACTION_IGNORE, STATE_DCS_ENTRY);
+			range(state, 0x91, 0x97, ACTION_EXECUTE, STATE_GROUND);
+			set(state, 0x98, ACTION_IGNORE, STATE_SOS_PM_APC_STRING);
+			set(state, 0x99, ACTION_EXECUTE, STATE_GROUND);
+			set(state, 0x9A, ACTION_EXECUTE, STATE_GROUND);
+			set(state, 0x9B, ACTION_IGNORE, STATE_CSI_ENTRY);
+			set(state, 0x9C, ACTION_IGNORE, STATE_GROUND);
+			set(state, 0x9D, ACTION_IGNORE, STATE_OSC_STRING);
+			set(state, 0x9E, ACTION_IGNORE, STATE_SOS_PM_APC_STRING);
+			set(state, 0x9F, ACTION_IGNORE, STATE_SOS_PM_APC_STRING);
+		}
+
+		// states in which C0 controls are executed
+		int[] executing = {
+			STATE_GROUND, STATE_ESCAPE, STATE_ESCAPE_INTERMEDIATE,
+			STATE_ESCAPE_IGNORE, STATE_CSI_ENTRY, STATE_CSI_PARAM,
+			STATE_CSI_INTERMEDIATE, STATE_CSI_IGNORE
+		};
+		for (int state : executing) {
+			range(state, 0x00, 0x17, ACTION_EXECUTE, STAY);
+			set(state, 0x19, ACTION_EXECUTE, STAY);
+			range(state, 0x1C, 0x1F, ACTION_EXECUTE, STAY);
+		}
+
+		range(STATE_GROUND, 0x20, 0x7F, ACTION_PRINT, STAY);
+		set(STATE_GROUND, CLASS_OTHER, ACTION_PRINT, STAY);
+
+		range(STATE_ESCAPE, 0x20, 0x2F, ACTION_COLLECT, STATE_ESCAPE_INTERMEDIATE);
+		range(STATE_ESCAPE, 0x30, 0x7E, ACTION_ESC_DISPATCH, STATE_GROUND);
+		set(STATE_ESCAPE, 0x50, ACTION_IGNORE, STATE_DCS_ENTRY);
+		set(STATE_ESCAPE, 0x58, ACTION_IGNORE, STATE_SOS_PM_APC_STRING);
+		set(STATE_ESCAPE, 0x5B, ACTION_IGNORE, STATE_CSI_ENTRY);
+		set(STATE_ESCAPE, 0x5D, ACTION_IGNORE, STATE_OSC_STRING);
+		set(STATE_ESCAPE, 0x5E, ACTION_IGNORE, STATE_SOS_PM_APC_STRING);
+		set(STATE_ESCAPE, 0x5F, ACTION_IGNORE, STATE_SOS_PM_APC_STRING);
+
+		range(STATE_ESCAPE_INTERMEDIATE, 0x20, 0x2F, ACTION_COLLECT, STAY);
+		range(STATE_ESCAPE_INTERMEDIATE, 0x30, 0x7E, ACTION_ESC_DISPATCH, STATE_GROUND);
+
+		range(STATE_ESCAPE_IGNORE, 0x30, 0x7E, ACTION_IGNORE, STATE_GROUND);
+
+		range(STATE_CSI_ENTRY, 0x20, 0x2F, ACTION_COLLECT, STATE_CSI_INTERMEDIATE);
+		range(STATE_CSI_ENTRY, 0x30, 0x3F, ACTION_COLLECT, STATE_CSI_PARAM);
+		range(STATE_CSI_ENTRY, 0x40, 0x7E, ACTION_CSI_DISPATCH, STATE_GROUND);
+
+		range(STATE_CSI_PARAM, 0x20, 0x2F, ACTION_COLLECT, STATE_CSI_INTERMEDIATE);
+		range(STATE_CSI_PARAM, 0x30, 0x3B, ACTION_COLLECT, STAY);
+		range(STATE_CSI_PARAM, 0x3C, 0x3F, ACTION_IGNORE, STATE_CSI_IGNORE);
+		range(STATE_CSI_PARAM, 0x40, 0x7E, ACTION_CSI_DISPATCH, STATE_GROUND);
+
+		range(STATE_CSI_INTERMEDIATE, 0x20, 0x2F, ACTION_COLLECT, STAY);
+		range(STATE_CSI_INTERMEDIATE, 0x30, 0x3F, ACTION_IGNORE, STATE_CSI_IGNORE);
+		range(STATE_CSI_INTERMEDIATE, 0x40, 0x7E, ACTION_CSI_DISPATCH, STATE_GROUND);
+
+		range(STATE_CSI_IGNORE, 0x40, 0x7E, ACTION_IGNORE, STATE_GROUND);
+
+		range(STATE_DCS_ENTRY, 0x20, 0x2F, ACTION_IGNORE, STATE_DCS_INTERMEDIATE);
+		range(STATE_DCS_ENTRY, 0x30, 0x3F, ACTION_IGNORE, STATE_DCS_PARAM);
+		set(STATE_DCS_ENTRY, 0x3A, ACTION_IGNORE, STATE_DCS_IGNORE);
+		range(STATE_DCS_ENTRY, 0x40, 0x7E, ACTION_IGNORE, STATE_DCS_PASSTHROUGH);
+
+		range(STATE_DCS_PARAM, 0x20, 0x2F, ACTION_IGNORE, STATE_DCS_INTERMEDIATE);
+		set(STATE_DCS_PARAM, 0x3A, ACTION_IGNORE, STATE_DCS_IGNORE);
+		range(STATE_DCS_PARAM, 0x3C, 0x3F, ACTION_IGNORE, STATE_DCS_IGNORE);
+		range(STATE_DCS_PARAM, 0x40, 0x7E, ACTION_IGNORE, STATE_DCS_PASSTHROUGH);
+
+		range(STATE_DCS_INTERMEDIATE, 0x30, 0x3F, ACTION_IGNORE, STATE_DCS_IGNORE);
+		range(STATE_DCS_INTERMEDIATE, 0x40, 0x7E, ACTION_IGNORE, STATE_DCS_PASSTHROUGH);
+
+		// xterm also accepts BEL as the terminator of an OSC string
+		set(STATE_OSC_STRING, 0x07, ACTION_IGNORE, STATE_GROUND);
+	}
+
+	/**
+	 * Sets the transition for a single character class.
+	 * @param state The state.
+	 * @param cls The character class.
+	 * @param action The action.
+	 * @param next The next state, or {@link #STAY}.
+	 */
+	private static void set(int state, int cls, int action, int next) {
+		TABLE[state * CLASSES + cls] = (byte) ((action << 4) | next);
+	}
+
+	/**
+	 * Sets the transitions for an inclusive range of character classes.
+	 * @param state The state.
+	 * @param from The first character class.
+	 * @param to The last character class.
+	 * @param action The action.
+	 * @param next The next state, or {@link #STAY}.
+	 */
+	private static void range(int state, int from, int to, int action, int next) {
+		for (int cls = from; cls <= to; cls++) {
+			set(state, cls, action, next);
+		}
+	}
+
+	/**
+	 * The current state.
+	 */
+	private int state = STATE_GROUND;
+
+	/**
+	 * The ANSI control sequence listener.
+	 */
+	private final AnsiControlSequenceListener listener;
+
+	/**
+	 * Creates the parser.
+	 * @param listener The listener.
+	 */
+	public Vt500ControlSequenceParser(AnsiControlSequenceListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void parse(char[] buf, int off, int len) {
+		checkBounds(buf, off, len);
+
+		int end = off + len;
+		int textStart = -1;
+		for (int i = off; i < end; i++) {
+			char character = buf[i];
+			int cls = character < CLASS_OTHER ? character : CLASS_OTHER;
+			int transition = TABLE[state * CLASSES + cls];
+			int action = (transition >> 4) & 0xF;
+			int next = transition & 0xF;
+
+			if (action == ACTION_PRINT || (action == ACTION_EXECUTE && state == STATE_GROUND && character < 0x80)) {
+				// printable characters and C0 controls form a run of text
+				if (textStart == -1) {
+					textStart = i;
+				}
+				continue;
+			}
+
+			if (textStart != -1) {
+				listener.parsedText(buf, textStart, i - textStart);
+				textStart = -1;
+			}
+
+			switch (action) {
+			case ACTION_EXECUTE:
+				if (character < 0x80) {
+					listener.parsedText(buf, i, 1);
+				} else {
+					// a C1 control is equivalent to ESC followed by the
+					// character 0x40 lower
+					sequence.reset();
+					sequence.setCommand((char) (character - 0x40));
+					listener.parsedEscapeSequence(sequence);
+				}
+				break;
+			case ACTION_COLLECT:
+				if (!sequence.append(character)) {
+					// the sequence is too long, skip to its final character,
+					// which has a wider range in an escape sequence
+					sequenceAborted();
+					boolean escape = state == STATE_ESCAPE || state == STATE_ESCAPE_INTERMEDIATE;
+					next = escape ? STATE_ESCAPE_IGNORE : STATE_CSI_IGNORE;
+				}
+				break;
+			case ACTION_ESC_DISPATCH:
+				sequence.setCommand(character);
+				listener.parsedEscapeSequence(sequence);
+				break;
+			case ACTION_CSI_DISPATCH:
+				sequence.setCommand(character);
+				listener.parsedControlSequence(sequence);
+				break;
+			}
+
+			if (next != STAY) {
+				if (next == STATE_ESCAPE || next == STATE_CSI_ENTRY || next == STATE_DCS_ENTRY) {
+					sequence.reset();
+				}
+				state = next;
+			}
+		}
+
+		if (textStart != -1) {
+			listener.parsedText(buf, textStart, end - textStart);
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * A test for the {@link GlyphAtlas} class.
+ * @author Graham Edgecombe
+ */
+public class TestGlyphAtlas {
+
+	/**
+	 * The font.
+	 */
+	private final Font font = new Font("Monospaced", Font.PLAIN, 12);
+
+	/**
+	 * Creates a black image.
+	 * @return The image.
+	 */
+	private BufferedImage createImage() {
+		BufferedImage image = new BufferedImage(64, 16, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Tests that glyphs drawn from the atlas look the same as glyphs drawn
+	 * directly.
+	 */
+	@Test
+	public void testDrawChars() {
+		char[] text = "aZ{ \u00E9".toCharArray();
+
+		BufferedImage expected = createImage();
+		Graphics2D g = expected.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		g.setFont(font);
+		g.setColor(Color.GREEN);
+		for (int i = 0; i < text.length; i++) {
+			g.drawChars(text, i, 1, i * 8, 12);
+		}
+		g.dispose();
+
+		GlyphAtlas atlas = new GlyphAtlas(font, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF, 8, 16, 12, 16);
+		BufferedImage actual = createImage();
+		g = actual.createGraphics();
+		atlas.drawChars(g, text, 0, text.length, Color.GREEN, 0, 0);
+		atlas.drawChars(g, text, 0, text.length, Color.GREEN, 0, 0);
+		g.dispose();
+
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+		assertEquals(4, atlas.getMisses());
+		assertEquals(4, atlas.getHits());
+	}
+
+	/**
+	 * Tests that slots are reused once the atlas is full.
+	 */
+	@Test
+	public void testEviction() {
+		GlyphAtlas atlas = new GlyphAtlas(font, null, 8, 16, 12, 2);
+		BufferedImage image = createImage();
+		Graphics2D g = image.createGraphics();
+
+		atlas.drawChars(g, new char[] { 'a', 'b' }, 0, 2, Color.WHITE, 0, 0);
+		atlas.drawChars(g, new char[] { 'a', 'c' }, 0, 2, Color.RED, 0, 0);
+		assertEquals(4, atlas.getMisses());
+
+		atlas.drawChars(g, new char[] { 'c' }, 0, 1, Color.RED, 0, 0);
+		assertEquals(1, atlas.getHits());
+
+		atlas.drawChars(g, new char[] { 'a' }, 0, 1, Color.WHITE, 0, 0);
+		assertEquals(5, atlas.getMisses());
+		g.dispose();
+	}
+
+}
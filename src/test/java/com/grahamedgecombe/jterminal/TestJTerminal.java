@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.grahamedgecombe.jterminal.bell.BellStrategy;
+import com.grahamedgecombe.jterminal.bell.NopBellStrategy;
+import com.grahamedgecombe.jterminal.vt100.Vt100TerminalModel;
+
+/**
+ * A test for the {@link JTerminal} class.
+ * @author Graham Edgecombe
+ */
+public class TestJTerminal {
+
+	/**
+	 * A terminal model which counts the number of cells read from it.
+	 * @author Graham Edgecombe
+	 */
+	private static final class CountingTerminalModel extends Vt100TerminalModel {
+
+		/**
+		 * The number of cells read.
+		 */
+		private int reads = 0;
+
+		/**
+		 * Creates the terminal model.
+		 * @param columns The number of columns.
+		 * @param rows The number of rows.
+		 * @param bufferSize The buffer size.
+		 */
+		private CountingTerminalModel(int columns, int rows, int bufferSize) {
+			super(columns, rows, bufferSize);
+		}
+
+		@Override
+		public TerminalCell getCell(int column, int row) {
+			reads++;
+			return super.getCell(column, row);
+		}
+
+	}
+
+	/**
+	 * A terminal model backed by an array of cells, which does not track
+	 * damage or notify its listeners.
+	 * @author Graham Edgecombe
+	 */
+	private static final class ArrayTerminalModel extends AbstractTerminalModel {
+
+		/**
+		 * The cells.
+		 */
+		private final TerminalCell[][] cells = new TerminalCell[4][8];
+
+		@Override
+		public TerminalCell getCell(int column, int row) {
+			return cells[row][column];
+		}
+
+		@Override
+		public void setCell(int column, int row, TerminalCell cell) {
+			cells[row][column] = cell;
+		}
+
+		@Override
+		public int getColumns() {
+			return 8;
+		}
+
+		@Override
+		public int getRows() {
+			return 4;
+		}
+
+		@Override
+		public int getBufferSize() {
+			return 4;
+		}
+
+		@Override
+		public int getCursorRow() {
+			return 3;
+		}
+
+		@Override
+		public int getCursorColumn() {
+			return 7;
+		}
+
+		@Override
+		public void setCursorRow(int row) {
+			// the cursor is fixed
+		}
+
+		@Override
+		public void setCursorColumn(int column) {
+			// the cursor is fixed
+		}
+
+		@Override
+		public void print(String str) {
+			// printing is not supported
+		}
+
+		@Override
+		public BellStrategy getBellStrategy() {
+			return new NopBellStrategy();
+		}
+
+		@Override
+		public void setBellStrategy(BellStrategy strategy) {
+			// the bell is not supported
+		}
+
+		@Override
+		public Color getDefaultBackgroundColor() {
+			return Color.BLACK;
+		}
+
+		@Override
+		public Color getDefaultForegroundColor() {
+			return Color.WHITE;
+		}
+
+	}
+
+	/**
+	 * The terminal model.
+	 */
+	private CountingTerminalModel model;
+
+	/**
+	 * The terminal.
+	 */
+	private JTerminal terminal;
+
+	/**
+	 * The image the terminal is painted into.
+	 */
+	private BufferedImage image;
+
+	/**
+	 * Sets up the terminal, with a buffer much larger than the viewport.
+	 */
+	@Before
+	public void setUp() {
+		model = new CountingTerminalModel(80, 24, 1000);
+		terminal = new JTerminal(model);
+		terminal.setSize(terminal.getPreferredSize());
+		terminal.doLayout();
+		image = new BufferedImage(terminal.getWidth(), terminal.getHeight(), BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Paints the terminal.
+	 * @param x The x coordinate of the clip rectangle.
+	 * @param y The y coordinate of the clip rectangle.
+	 * @param width The width of the clip rectangle.
+	 * @param height The height of the clip rectangle.
+	 */
+	private void paint(int x, int y, int width, int height) {
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setClip(x, y, width, height);
+			terminal.paint(g);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Tests that only the rows in the viewport are painted.
+	 */
+	@Test
+	public void testPaintViewport() {
+		paint(0, 0, image.getWidth(), image.getHeight());
+		assertEquals(80 * 24, model.reads);
+	}
+
+	/**
+	 * Tests that a frame after the model has scrolled only paints the rows
+	 * which were exposed or changed, and looks the same as a full frame.
+	 */
+	@Test
+	public void testPaintScroll() {
+		model = new CountingTerminalModel(80, 24, 24);
+		for (int i = 0; i < 30; i++) {
+			model.print("\r\n\u009B3" + (i % 8) + "mline " + i);
+		}
+		terminal = new JTerminal(model);
+		terminal.setSize(terminal.getPreferredSize());
+		terminal.doLayout();
+		image = new BufferedImage(terminal.getWidth(), terminal.getHeight(), BufferedImage.TYPE_INT_RGB);
+		paint(0, 0, image.getWidth(), image.getHeight());
+
+		model.reads = 0;
+		model.print("\r\nnew line\r\nand another");
+		paint(0, 0, image.getWidth(), image.getHeight());
+		assertEquals(80 * 3, model.reads);
+
+		JTerminal fresh = new JTerminal(model);
+		fresh.setSize(fresh.getPreferredSize());
+		fresh.doLayout();
+		BufferedImage expected = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = expected.createGraphics();
+		fresh.paint(g);
+		g.dispose();
+
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), image.getRGB(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Tests that many changes to the model are coalesced into few frames.
+	 */
+	@Test
+	public void testFrameCoalescing() throws InterruptedException {
+		terminal.setFrameRate(20);
+		assertEquals(20, terminal.getFrameRate());
+
+		long end = System.currentTimeMillis() + 250;
+		int changes = 0;
+		while (System.currentTimeMillis() < end) {
+			model.print("x");
+			changes++;
+		}
+		Thread.sleep(250);
+
+		long frames = terminal.getFramesPainted();
+		assertTrue(frames >= 1);
+		assertTrue(frames <= 12);
+		assertTrue(frames < changes);
+
+		Thread.sleep(250);
+		assertEquals(frames, terminal.getFramesPainted());
+	}
+
+	/**
+	 * Tests that frames painted on the render thread look the same as frames
+	 * painted directly.
+	 */
+	@Test
+	public void testRenderThread() throws InterruptedException {
+		for (int i = 0; i < 30; i++) {
+			model.print("\u009B3" + (i % 8) + "mline " + i + "\r\n");
+		}
+
+		JTerminal direct = new JTerminal(model);
+		direct.setSize(direct.getPreferredSize());
+		direct.doLayout();
+		BufferedImage expected = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = expected.createGraphics();
+		direct.paint(g);
+		g.dispose();
+
+		assertFalse(terminal.isRenderThreadEnabled());
+		terminal.setRenderThreadEnabled(true);
+		assertTrue(terminal.isRenderThreadEnabled());
+		try {
+			long end = System.currentTimeMillis() + 5000;
+			boolean equal;
+			do {
+				Thread.sleep(10);
+				paint(0, 0, image.getWidth(), image.getHeight());
+				equal = true;
+				for (int y = 0; y < image.getHeight() && equal; y++) {
+					for (int x = 0; x < image.getWidth() && equal; x++) {
+						equal = expected.getRGB(x, y) == image.getRGB(x, y);
+					}
+				}
+			} while (!equal && System.currentTimeMillis() < end);
+			assertTrue(equal);
+		} finally {
+			terminal.setRenderThreadEnabled(false);
+		}
+		assertFalse(terminal.isRenderThreadEnabled());
+	}
+
+	/**
+	 * Tests that the render thread stops when the terminal is removed from
+	 * its container, and starts again when it is added back.
+	 */
+	@Test
+	public void testRenderThreadRemoved() throws InterruptedException {
+		// wait for the render threads of other tests to stop
+		for (Thread thread = findRenderThread(); thread != null; thread = findRenderThread()) {
+			thread.join();
+		}
+
+		terminal.setRenderThreadEnabled(true);
+		try {
+			Thread thread = findRenderThread();
+			assertNotNull(thread);
+
+			terminal.removeNotify();
+			thread.join(5000);
+			assertFalse(thread.isAlive());
+			assertNull(findRenderThread());
+			assertTrue(terminal.isRenderThreadEnabled());
+
+			terminal.addNotify();
+			assertNotNull(findRenderThread());
+		} finally {
+			terminal.setRenderThreadEnabled(false);
+		}
+	}
+
+	/**
+	 * Finds a running render thread.
+	 * @return The thread, or {@code null} if there is not one.
+	 */
+	private static Thread findRenderThread() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("JTerminal renderer") && thread.isAlive()) {
+				return thread;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tests that a model which does not track damage is painted in full, even
+	 * if it has not reported a change.
+	 */
+	@Test
+	public void testPaintUntrackedModel() {
+		ArrayTerminalModel untracked = new ArrayTerminalModel();
+		JTerminal terminal = new JTerminal(untracked);
+		terminal.setSize(terminal.getPreferredSize());
+		terminal.doLayout();
+		BufferedImage image = new BufferedImage(terminal.getWidth(), terminal.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		terminal.paint(g);
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(0, 0));
+
+		// the change is not reported to the terminal
+		untracked.setCell(0, 0, new TerminalCell(' ', Color.RED, Color.WHITE));
+		terminal.paint(g);
+		g.dispose();
+		assertEquals(Color.RED.getRGB(), image.getRGB(0, 0));
+	}
+
+	/**
+	 * Tests that only the cells in the clip rectangle are painted.
+	 */
+	@Test
+	public void testPaintClip() {
+		model.print("\u009B31mX");
+		paint(1, 1, 2, 2);
+		assertEquals(1, model.reads);
+	}
+
+}
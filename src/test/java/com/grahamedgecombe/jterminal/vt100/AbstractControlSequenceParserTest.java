@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests which apply to every {@link ControlSequenceParser}, run by the test
+ * of each parser.
+ * @author Graham Edgecombe
+ */
+public abstract class AbstractControlSequenceParserTest {
+
+	/**
+	 * Creates the parser which is tested.
+	 * @param listener The listener.
+	 * @return The parser.
+	 */
+	protected abstract ControlSequenceParser createParser(AnsiControlSequenceListener listener);
+
+	/**
+	 * Tests that a sequence longer than the maximum length is aborted and
+	 * the parser recovers once it ends.
+	 */
+	@Test
+	public void testOversizedSequence() {
+		final List<Object> objects = new ArrayList<Object>();
+		ControlSequenceParser parser = createParser(new AnsiControlSequenceListener() {
+			@Override
+			public void parsedControlSequence(AnsiControlSequence seq) {
+				objects.add(seq.copy());
+			}
+
+			@Override
+			public void parsedString(String str) {
+				objects.add(str);
+			}
+		});
+		parser.setMaximumSequenceLength(8);
+
+		parser.parse("\u001B[1;2;3m");
+		char[] digits = new char[100000];
+		Arrays.fill(digits, '9');
+		parser.parse("\u001B[");
+		for (int i = 0; i < 10; i++) {
+			parser.parse(digits, 0, digits.length);
+		}
+		parser.parse("mok");
+
+		assertEquals(2, objects.size());
+		assertEquals(3, ((AnsiControlSequence) objects.get(0)).getParameterCount());
+		assertEquals("ok", objects.get(1));
+		assertEquals(1, parser.getAbortedSequences());
+	}
+
+}
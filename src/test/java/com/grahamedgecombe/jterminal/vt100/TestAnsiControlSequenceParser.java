@@ -35,7 +35,7 @@ import org.junit.Test;
  * A test for the {@link AnsiControlSequenceParser} class.
  * @author Graham Edgecombe
  */
-public class TestAnsiControlSequenceParser implements AnsiControlSequenceListener {
+public class TestAnsiControlSequenceParser extends AbstractControlSequenceParserTest implements AnsiControlSequenceListener {
 
 	/**
 	 * The current parser.
@@ -57,6 +57,11 @@ public class TestAnsiControlSequenceParser implements AnsiControlSequenceListene
 		parser = new AnsiControlSequenceParser(this);
 	}
 
+	@Override
+	protected ControlSequenceParser createParser(AnsiControlSequenceListener listener) {
+		return new AnsiControlSequenceParser(listener);
+	}
+
 	/**
 	 * 001TEST:Tests a broken sequence with the single byte CSI.
 	 */
@@ -254,9 +259,55 @@ public class TestAnsiControlSequenceParser implements AnsiControlSequenceListene
 		catch(AssertionError e) {System.out.println("Test008,"+"-1");}
 	}
 
+	/**
+	 * Tests parsing ranges of a character array, with a sequence split
+	 * between two calls.
+	 */
+	@Test
+	public void testCharArrayRange() {
+		char[] ch = { 'x', 'h', 'i', 27, '[', '3', '0', ';', '4', '0', 'm', 'b', 'y', 'e', 'x' };
+		parser.parse(ch, 1, 6);
+		assertEquals(1, objects.size());
+		assertEquals("hi", objects.get(0));
+
+		parser.parse(ch, 7, 7);
+		assertEquals(3, objects.size());
+
+		AnsiControlSequence seq = (AnsiControlSequence) objects.get(1);
+		assertEquals('m', seq.getCommand());
+		assertArrayEquals(new String[] { "30", "40" }, seq.getParameters());
+		assertEquals("bye", objects.get(2));
+	}
+
+	/**
+	 * Tests the numeric parameter accessors, including omitted parameters
+	 * and sub-parameters.
+	 */
+	@Test
+	public void testNumericParameters() {
+		parser.parse("\u009B?1;;38:5:196m");
+
+		AnsiControlSequence seq = (AnsiControlSequence) objects.get(0);
+		assertEquals('m', seq.getCommand());
+		assertEquals('?', seq.getPrefix());
+		assertEquals(5, seq.getParameterCount());
+		assertEquals(1, seq.getParameter(0, 7));
+		assertEquals(7, seq.getParameter(1, 7));
+		assertEquals(38, seq.getParameter(2, 7));
+		assertFalse(seq.isSubParameter(2));
+		assertEquals(5, seq.getParameter(3, 7));
+		assertTrue(seq.isSubParameter(3));
+		assertEquals(196, seq.getParameter(4, 7));
+		assertEquals(7, seq.getParameter(5, 7));
+
+		parser.parse("\u009B99999999999H");
+		seq = (AnsiControlSequence) objects.get(1);
+		assertEquals(Integer.MAX_VALUE, seq.getParameter(0, 1));
+	}
+
 	@Override
 	public void parsedControlSequence(AnsiControlSequence seq) {
-		objects.add(seq);
+		objects.add(seq.copy());
 	}
 
 	@Override
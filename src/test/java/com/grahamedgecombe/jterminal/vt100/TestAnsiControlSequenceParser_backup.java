@@ -214,7 +214,7 @@ public class TestAnsiControlSequenceParser_backup implements AnsiControlSequence
 
 	@Override
 	public void parsedControlSequence(AnsiControlSequence seq) {
-		objects.add(seq);
+		objects.add(seq.copy());
 	}
 
 	@Override
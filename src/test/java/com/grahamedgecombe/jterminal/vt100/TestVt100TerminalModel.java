@@ -25,12 +25,23 @@ package com.grahamedgecombe.jterminal.vt100;
 import static org.junit.Assert.*;
 
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.grahamedgecombe.jterminal.TerminalCell;
 import com.grahamedgecombe.jterminal.TerminalModel;
+import com.grahamedgecombe.jterminal.TerminalModelListener;
+import com.grahamedgecombe.jterminal.TerminalScreen;
 import com.grahamedgecombe.jterminal.bell.BellStrategy;
 
 /**
@@ -99,6 +110,25 @@ public class TestVt100TerminalModel {
 		assertNull(model.getCell(23, 1));
 	}
 
+	/**
+	 * Tests that the buffer keeps the most recent lines in order once it has
+	 * scrolled past its own size several times.
+	 */
+	@Test
+	public void testBufferWrapsAround() {
+		model = new Vt100TerminalModel(model.getColumns(), 3, 5);
+		for (int i = 0; i < 17; i++) {
+			model.print("\r\n" + (char) ('a' + i));
+		}
+		for (int row = 0; row < 5; row++) {
+			assertEquals((char) ('a' + 12 + row), model.getCell(0, row).getCharacter());
+			assertNull(model.getCell(1, row));
+		}
+
+		model.setCell(2, 4, model.getCell(0, 0));
+		assertEquals('m', model.getCell(2, 4).getCharacter());
+	}
+
 	/**
 	 * Tests the erase functionality.
 	 */
@@ -190,6 +220,732 @@ public class TestVt100TerminalModel {
 		assertEquals(17, model.getCursorRow());
 	}
 
+	/**
+	 * Tests that cells with arbitrary colors can be stored and retrieved.
+	 */
+	@Test
+	public void testSetCell() {
+		Color orange = new Color(255, 128, 0);
+		model.setCell(4, 2, new TerminalCell('Z', orange, Color.BLUE));
+
+		TerminalCell cell = model.getCell(4, 2);
+		assertNotNull(cell);
+		assertEquals('Z', cell.getCharacter());
+		assertEquals(orange, cell.getBackgroundColor());
+		assertEquals(Color.BLUE, cell.getForegroundColor());
+
+		model.setCell(4, 2, null);
+		assertNull(model.getCell(4, 2));
+	}
+
+	/**
+	 * Tests that setting more distinct colors than fit in the color table
+	 * reclaims the colors which are no longer used, without changing the
+	 * colors of other cells or of snapshots.
+	 */
+	@Test
+	public void testManyColors() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 3, 10);
+		Color orange = new Color(255, 128, 0);
+		model.setCell(0, 0, new TerminalCell('o', orange, Color.WHITE));
+		model.print("\u009B1B\u009B31mr\r\n\r\n\r\n\r\n\r\n\r\n\r\n");
+		TerminalSnapshot snapshot = model.snapshot();
+
+		for (int i = 0; i < ColorTable.MAXIMUM_SIZE + 100; i++) {
+			Color color = new Color(i);
+			model.setCell(0, 9, new TerminalCell('c', color, Color.WHITE));
+			assertEquals(color, model.getCell(0, 9).getBackgroundColor());
+		}
+
+		assertEquals(orange, model.getCell(0, 0).getBackgroundColor());
+		assertEquals(Palette.DEFAULT.getNormalColor(1), model.getCell(0, 1).getForegroundColor());
+		assertEquals(orange, snapshot.getCell(0, 0).getBackgroundColor());
+	}
+
+	/**
+	 * Tests that setting a new color when every color in the color table is
+	 * in use falls back to the closest color rather than failing.
+	 */
+	@Test
+	public void testColorTableFull() {
+		Vt100TerminalModel model = new Vt100TerminalModel(256, 256, 256);
+		for (int row = 0; row < 256; row++) {
+			for (int column = 0; column < 256; column++) {
+				model.setCell(column, row, new TerminalCell('c', new Color(row * 256 + column), Color.WHITE));
+			}
+		}
+
+		assertEquals(new Color(0), model.getCell(0, 0).getBackgroundColor());
+		Color last = model.getCell(255, 255).getBackgroundColor();
+		assertEquals(0, last.getRed());
+		assertTrue(last.getGreen() > 250);
+		assertTrue(last.getBlue() > 250);
+	}
+
+	/**
+	 * Tests that identical cells are shared rather than recreated.
+	 */
+	@Test
+	public void testCellCache() {
+		Vt100TerminalModel model = new Vt100TerminalModel();
+		model.print("aab\u009B31ma");
+
+		TerminalCell cell = model.getCell(0, 0);
+		assertSame(cell, model.getCell(1, 0));
+		assertNotSame(cell, model.getCell(2, 0));
+		assertNotSame(cell, model.getCell(3, 0));
+		assertEquals('a', model.getCell(3, 0).getCharacter());
+
+		assertEquals(2, model.getCellCacheHits());
+		assertEquals(3, model.getCellCacheMisses());
+	}
+
+	/**
+	 * Tests the VT500 parser engine.
+	 */
+	@Test
+	public void testVt500Engine() {
+		Vt100TerminalModel model = new Vt100TerminalModel();
+		model.setParserEngine(ParserEngine.VT500);
+		assertEquals(ParserEngine.VT500, model.getParserEngine());
+
+		model.print("\u001B]0;title\u0007ab\u001B7\r\n\u001B[31mc\u001B8d");
+		assertEquals('a', model.getCell(0, 0).getCharacter());
+		assertEquals('b', model.getCell(1, 0).getCharacter());
+		assertEquals('d', model.getCell(2, 0).getCharacter());
+		assertEquals('c', model.getCell(0, 1).getCharacter());
+		assertEquals(new Color(128, 0, 0), model.getCell(0, 1).getForegroundColor());
+	}
+
+	/**
+	 * Tests writing UTF-8 encoded bytes, with characters and sequences split
+	 * between buffers.
+	 */
+	@Test
+	public void testWrite() throws Exception {
+		Vt100TerminalModel model = new Vt100TerminalModel();
+		byte[] bytes = "a\u00E9\u4E2D\u009B31mb".getBytes("UTF-8");
+		for (int i = 0; i < bytes.length; i++) {
+			model.write(ByteBuffer.wrap(bytes, i, 1));
+		}
+
+		assertEquals('a', model.getCell(0, 0).getCharacter());
+		assertEquals('\u00E9', model.getCell(1, 0).getCharacter());
+		assertEquals('\u4E2D', model.getCell(2, 0).getCharacter());
+		assertEquals('b', model.getCell(3, 0).getCharacter());
+		assertEquals(new Color(128, 0, 0), model.getCell(3, 0).getForegroundColor());
+
+		model.write(ByteBuffer.wrap(new byte[] { (byte) 0xE4, 'c', (byte) 0x9B, 'd' }));
+		assertEquals('\uFFFD', model.getCell(4, 0).getCharacter());
+		assertEquals('c', model.getCell(5, 0).getCharacter());
+		assertEquals('\uFFFD', model.getCell(6, 0).getCharacter());
+		assertEquals('d', model.getCell(7, 0).getCharacter());
+
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream("\r\nxy".getBytes("UTF-8")));
+		while (model.read(channel) != -1);
+		assertEquals('x', model.getCell(0, 1).getCharacter());
+		assertEquals('y', model.getCell(1, 1).getCharacter());
+	}
+
+	/**
+	 * Tests that changes to the buffer are recorded as damage.
+	 */
+	@Test
+	public void testDamage() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 3, 3);
+		long generation = model.getGeneration();
+
+		model.print("\u009B2;4Habc\rd");
+		assertTrue(model.getGeneration() > generation);
+		assertEquals(generation, model.getRowGeneration(0));
+		assertTrue(model.getRowGeneration(1) > generation);
+		assertEquals(0, model.getDamageStart(1));
+		assertEquals(6, model.getDamageEnd(1));
+		assertTrue(model.getDamageStart(0) >= model.getDamageEnd(0));
+
+		model.clearDamage();
+		generation = model.getGeneration();
+		model.setCell(7, 0, null);
+		assertTrue(model.getRowGeneration(0) > generation);
+		assertEquals(7, model.getDamageStart(0));
+		assertEquals(8, model.getDamageEnd(0));
+		assertTrue(model.getDamageStart(1) >= model.getDamageEnd(1));
+
+		model.clearDamage();
+		generation = model.getGeneration();
+		model.print("\r\n\r\nx");
+		assertEquals(1, model.getScrollCount());
+		assertTrue(model.getRowGeneration(0) <= generation);
+		assertEquals(0, model.getDamageStart(2));
+		assertEquals(10, model.getDamageEnd(2));
+	}
+
+	/**
+	 * Tests that listeners are notified once per change.
+	 */
+	@Test
+	public void testListener() {
+		final int[] counter = new int[1];
+		TerminalModelListener listener = new TerminalModelListener() {
+			/*
+			 * (non-Javadoc)
+			 * @see com.grahamedgecombe.jterminal.TerminalModelListener#modelChanged(com.grahamedgecombe.jterminal.TerminalModel)
+			 */
+			@Override
+			public void modelChanged(TerminalModel model) {
+				counter[0]++;
+			}
+		};
+
+		model.addListener(listener);
+		model.print("Hello\u009B2;3HWorld\u009B2J");
+		assertEquals(1, counter[0]);
+
+		model.setCursorRow(3);
+		model.setCell(0, 0, null);
+		assertEquals(3, counter[0]);
+
+		model.removeListener(listener);
+		model.print("!");
+		assertEquals(3, counter[0]);
+	}
+
+	/**
+	 * Tests that a snapshot holds the state of the model when it was taken.
+	 */
+	@Test
+	public void testSnapshot() {
+		model.print("\u009B31mHi");
+		TerminalSnapshot snapshot = ((Vt100TerminalModel) model).snapshot();
+		model.print("\u009B32m\rYo");
+
+		assertEquals(model.getColumns(), snapshot.getColumns());
+		assertEquals(model.getRows(), snapshot.getRows());
+		assertEquals(model.getBufferSize(), snapshot.getBufferSize());
+		assertEquals(0, snapshot.getCursorRow());
+		assertEquals(2, snapshot.getCursorColumn());
+		assertTrue(snapshot.getGeneration() < model.getGeneration());
+		assertEquals(snapshot.getGeneration(), snapshot.getRowGeneration(0));
+
+		assertEquals('H', snapshot.getCell(0, 0).getCharacter());
+		assertEquals(Palette.DEFAULT.getNormalColor(1), snapshot.getCell(0, 0).getForegroundColor());
+		assertEquals('i', snapshot.getCell(1, 0).getCharacter());
+		assertNull(snapshot.getCell(2, 0));
+		assertEquals('Y', model.getCell(0, 0).getCharacter());
+	}
+
+	/**
+	 * Tests that snapshots are unaffected by changes made after they were
+	 * taken, including scrolling, and that a snapshot is reused while the
+	 * model does not change.
+	 */
+	@Test
+	public void testSnapshotSharing() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 3, 5);
+		for (int i = 0; i < 5; i++) {
+			model.print("line " + i + "\r\n");
+		}
+		TerminalSnapshot first = model.snapshot();
+		assertSame(first, model.snapshot());
+
+		model.print("more\r\n");
+		TerminalSnapshot second = model.snapshot();
+		assertNotSame(first, second);
+		model.setCell(0, 0, null);
+		model.clear();
+
+		assertEquals(5, first.getBufferSize());
+		for (int i = 0; i < 4; i++) {
+			assertEquals((char) ('0' + i), first.getCell(5, i).getCharacter());
+			assertEquals((char) ('0' + i + 1), second.getCell(5, i).getCharacter());
+		}
+		assertEquals('4', first.getCell(5, 4).getCharacter());
+		assertEquals('m', second.getCell(0, 4).getCharacter());
+		assertTrue(first.getScrollCount() < second.getScrollCount());
+		assertNull(model.getCell(0, 0));
+	}
+
+	/**
+	 * Tests that changing one row after a snapshot copies only that row's
+	 * chunk, leaving the snapshot's rows and generations alone in every chunk.
+	 */
+	@Test
+	public void testSnapshotChunks() {
+		int size = RowTable.CHUNK_SIZE * 3;
+		Vt100TerminalModel model = new Vt100TerminalModel(10, size, size);
+		for (int i = 0; i < size; i++) {
+			model.print("\u009B" + (i + 1) + "H" + (char) ('A' + i % 26));
+		}
+		TerminalSnapshot first = model.snapshot();
+
+		int row = RowTable.CHUNK_SIZE + 1;
+		model.print("\u009B" + (row + 1) + "Hz");
+		TerminalSnapshot second = model.snapshot();
+
+		for (int i = 0; i < size; i++) {
+			char expected = (char) ('A' + i % 26);
+			assertEquals(expected, first.getCell(0, i).getCharacter());
+			assertEquals(i == row ? 'z' : expected, second.getCell(0, i).getCharacter());
+			if (i == row) {
+				assertTrue(first.getRowGeneration(i) < second.getRowGeneration(i));
+			} else {
+				assertEquals(first.getRowGeneration(i), second.getRowGeneration(i));
+			}
+		}
+	}
+
+	/**
+	 * Tests that readers never see the effects of half of a print while
+	 * writers print to the model. Each print fills the whole screen with one
+	 * character, so every consistent state has a single character on the
+	 * screen and the cursor in one of two places.
+	 */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final Vt100TerminalModel model = new Vt100TerminalModel(20, 5);
+		final int columns = model.getColumns(), rows = model.getRows();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger torn = new AtomicInteger();
+		final AtomicLong reads = new AtomicLong();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 2; i++) {
+			final char first = (char) ('a' + i * 13);
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					StringBuilder screen = new StringBuilder();
+					for (int n = 0; running.get(); n++) {
+						screen.setLength(0);
+						screen.append("\u009BH");
+						char ch = (char) (first + n % 13);
+						for (int j = 0; j < columns * rows; j++) {
+							screen.append(ch);
+						}
+						model.print(screen.toString());
+					}
+				}
+			});
+		}
+		for (int i = 0; i < 3; i++) {
+			final boolean snapshots = i != 0;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					while (running.get()) {
+						TerminalScreen screen = snapshots ? model.snapshot() : model;
+						int cursorRow = screen.getCursorRow(), cursorColumn = screen.getCursorColumn();
+						if (!(cursorRow == 0 && cursorColumn == 0) && !(cursorRow == rows - 1 && cursorColumn == columns)) {
+							torn.incrementAndGet();
+						}
+
+						TerminalCell expected = screen.getCell(0, 0);
+						for (int row = 0; row < rows; row++) {
+							for (int column = 0; column < columns; column++) {
+								TerminalCell cell = screen.getCell(column, row);
+								if (snapshots && (cell == null ? expected != null : expected == null || cell.getCharacter() != expected.getCharacter())) {
+									torn.incrementAndGet();
+								}
+							}
+						}
+						reads.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(500);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(reads.get() > 0);
+		assertEquals(0, torn.get());
+	}
+
+	/**
+	 * Tests that changing the palette recolors cells printed with SGR colors
+	 * but not cells set with other colors or snapshots taken beforehand.
+	 */
+	@Test
+	public void testPalette() {
+		Vt100TerminalModel model = new Vt100TerminalModel();
+		model.print("\u009B31mA\u009B2;35mB");
+		model.setCell(2, 0, new TerminalCell('C', Color.BLACK, Color.ORANGE));
+		assertEquals(new Color(255, 0, 255), model.getCell(1, 0).getForegroundColor());
+
+		Color[] normal = new Color[Palette.COLORS];
+		Color[] bright = new Color[Palette.COLORS];
+		for (int i = 0; i < Palette.COLORS; i++) {
+			normal[i] = new Color(i, 0, 0);
+			bright[i] = new Color(0, i, 0);
+		}
+		TerminalSnapshot snapshot = model.snapshot();
+		long generation = model.getGeneration();
+		model.setPalette(new Palette(normal, bright));
+
+		assertEquals(normal[1], model.getCell(0, 0).getForegroundColor());
+		assertEquals(normal[0], model.getCell(0, 0).getBackgroundColor());
+		assertEquals(bright[5], model.getCell(1, 0).getForegroundColor());
+		assertEquals(Color.ORANGE, model.getCell(2, 0).getForegroundColor());
+		assertEquals(normal[0], model.getDefaultBackgroundColor());
+		assertEquals(normal[7], model.getDefaultForegroundColor());
+		assertTrue(model.getRowGeneration(0) > generation);
+
+		assertEquals(Palette.DEFAULT.getNormalColor(1), snapshot.getCell(0, 0).getForegroundColor());
+		assertEquals(Palette.DEFAULT.getNormalColor(0), snapshot.getDefaultBackgroundColor());
+	}
+
+	/**
+	 * Tests that palettes must have the right number of colors.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testPaletteSize() {
+		new Palette(new Color[] { Color.BLACK }, new Color[] { Color.WHITE });
+	}
+
+	/**
+	 * Tests erasing parts of a line.
+	 */
+	@Test
+	public void testEraseLine() {
+		model.print("abcdef\r\nghijkl\u009BA\u009B3G\u009BK");
+		assertEquals('b', model.getCell(1, 0).getCharacter());
+		assertNull(model.getCell(2, 0));
+		assertNull(model.getCell(5, 0));
+		assertEquals('i', model.getCell(2, 1).getCharacter());
+
+		model.print("\u009BB\u009B1K");
+		assertNull(model.getCell(2, 1));
+		assertEquals('j', model.getCell(3, 1).getCharacter());
+
+		model.print("\u009B2K");
+		assertNull(model.getCell(5, 1));
+	}
+
+	/**
+	 * Tests erasing the display when the cursor is past the last column.
+	 */
+	@Test
+	public void testEraseDisplayAtEndOfLine() {
+		Vt100TerminalModel model = new Vt100TerminalModel(4, 3);
+		model.print("abcd\u009B1J");
+		assertEquals(4, model.getCursorColumn());
+		assertNull(model.getCell(3, 0));
+		model.print("\r\nefgh\u009BJ");
+		assertEquals('h', model.getCell(3, 1).getCharacter());
+	}
+
+	/**
+	 * Tests filling and clearing regions.
+	 */
+	@Test
+	public void testFillRegion() {
+		TerminalCell cell = new TerminalCell('#', Color.BLUE, Color.YELLOW);
+		model.fillRegion(2, 1, 3, 2, cell);
+		for (int row = 0; row < 4; row++) {
+			for (int column = 0; column < 6; column++) {
+				boolean inside = column >= 2 && column < 5 && row >= 1 && row < 3;
+				TerminalCell actual = model.getCell(column, row);
+				if (inside) {
+					assertEquals('#', actual.getCharacter());
+					assertEquals(Color.YELLOW, actual.getForegroundColor());
+				} else {
+					assertNull(actual);
+				}
+			}
+		}
+
+		model.clearRegion(3, 1, 2, 1);
+		assertEquals('#', model.getCell(2, 1).getCharacter());
+		assertNull(model.getCell(3, 1));
+		assertEquals('#', model.getCell(3, 2).getCharacter());
+	}
+
+	/**
+	 * Tests that regions outside the buffer are rejected.
+	 */
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testFillRegionBounds() {
+		model.fillRegion(model.getColumns() - 1, 0, 2, 1, null);
+	}
+
+	/**
+	 * Tests copying overlapping regions, of whole rows and parts of rows.
+	 */
+	@Test
+	public void testCopyRegion() {
+		Vt100TerminalModel model = new Vt100TerminalModel(4, 4);
+		model.print("abcd\r\nefgh\r\nijkl");
+		TerminalSnapshot snapshot = model.snapshot();
+
+		model.copyRegion(0, 0, 4, 3, 0, 1);
+		assertEquals('a', model.getCell(0, 0).getCharacter());
+		assertEquals('a', model.getCell(0, 1).getCharacter());
+		assertEquals('e', model.getCell(0, 2).getCharacter());
+		assertEquals('i', model.getCell(0, 3).getCharacter());
+
+		model.print("\u009BHX");
+		assertEquals('X', model.getCell(0, 0).getCharacter());
+		assertEquals('a', model.getCell(0, 1).getCharacter());
+		assertEquals('a', snapshot.getCell(0, 0).getCharacter());
+		assertNull(snapshot.getCell(0, 3));
+
+		model.copyRegion(0, 1, 3, 1, 1, 1);
+		assertEquals('a', model.getCell(0, 1).getCharacter());
+		assertEquals('a', model.getCell(1, 1).getCharacter());
+		assertEquals('b', model.getCell(2, 1).getCharacter());
+		assertEquals('c', model.getCell(3, 1).getCharacter());
+		assertEquals('b', model.getCell(1, 0).getCharacter());
+	}
+
+	/**
+	 * Prints a digit at the start of each row of a model.
+	 * @param model The model.
+	 */
+	private static void printRowNumbers(Vt100TerminalModel model) {
+		for (int row = 0; row < model.getRows(); row++) {
+			model.print("\u009B" + (row + 1) + "H" + row);
+		}
+	}
+
+	/**
+	 * Gets the characters at the start of each row of a model.
+	 * @param model The model.
+	 * @return The characters, with a space for each empty cell.
+	 */
+	private static String getRowNumbers(Vt100TerminalModel model) {
+		StringBuilder builder = new StringBuilder();
+		for (int row = 0; row < model.getRows(); row++) {
+			TerminalCell cell = model.getCell(0, row);
+			builder.append(cell == null ? ' ' : cell.getCharacter());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Tests that erasing after a line feed on the last row of a full buffer,
+	 * before the buffer has scrolled, does not erase any other row.
+	 */
+	@Test
+	public void testEraseAfterLineFeedAtEnd() {
+		String[] sequences = { "\u009BK", "\u009B2K", "\u009B1K", "\u009BJ", "\u009BC\u007F" };
+		for (String sequence : sequences) {
+			Vt100TerminalModel model = new Vt100TerminalModel(4, 3);
+			model.print("aaa\r\nbbb\r\nccc\r\n" + sequence);
+			assertEquals("aaa ", getRow(model, 0));
+			assertEquals("bbb ", getRow(model, 1));
+			assertEquals("ccc ", getRow(model, 2));
+		}
+	}
+
+	/**
+	 * Tests that line feeds at the bottom of a scrolling region only scroll
+	 * the region.
+	 */
+	@Test
+	public void testScrollRegion() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 6);
+		model.setParserEngine(ParserEngine.VT500);
+		printRowNumbers(model);
+		long scrollCount = model.getScrollCount();
+
+		model.print("\u009B2;4r");
+		assertEquals(0, model.getCursorRow());
+		assertEquals(0, model.getCursorColumn());
+
+		model.print("\u009B4Hx\r\ny\n");
+		assertEquals("0xy 45", getRowNumbers(model));
+		assertEquals(3, model.getCursorRow());
+		assertEquals(scrollCount, model.getScrollCount());
+
+		model.print("\u009B2H\u001BM");
+		assertEquals("0 xy45", getRowNumbers(model));
+		assertEquals(1, model.getCursorRow());
+
+		model.print("\u009B2S");
+		assertEquals("0y  45", getRowNumbers(model));
+		model.print("\u009BT");
+		assertEquals("0 y 45", getRowNumbers(model));
+
+		model.print("\u009Br\u009B6H\n\n");
+		assertEquals(6, model.getCursorRow());
+	}
+
+	/**
+	 * Tests that scrolling a region does not change snapshots.
+	 */
+	@Test
+	public void testScrollRegionSnapshot() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 6);
+		printRowNumbers(model);
+		TerminalSnapshot snapshot = model.snapshot();
+		model.print("\u009B1;3r\u009B3H\n\n\nabc");
+		assertEquals("  a345", getRowNumbers(model));
+		for (int row = 0; row < 6; row++) {
+			assertEquals((char) ('0' + row), snapshot.getCell(0, row).getCharacter());
+		}
+	}
+
+	/**
+	 * Tests that inserting and deleting lines only moves the rows between the
+	 * cursor and the bottom margin.
+	 */
+	@Test
+	public void testInsertDeleteLines() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 6);
+		printRowNumbers(model);
+		long scrollCount = model.getScrollCount();
+
+		model.print("\u009B2H\u009BL");
+		assertEquals("0 1234", getRowNumbers(model));
+		assertEquals(0, model.getCursorColumn());
+
+		model.print("\u009B2M");
+		assertEquals("0234  ", getRowNumbers(model));
+
+		printRowNumbers(model);
+		model.print("\u009B1;4r\u009B2H\u009B9L");
+		assertEquals("0   45", getRowNumbers(model));
+
+		model.print("\u009B6H\u009BM");
+		assertEquals("0   45", getRowNumbers(model));
+		assertEquals(scrollCount, model.getScrollCount());
+	}
+
+	/**
+	 * Gets the characters in a row of a model.
+	 * @param model The model.
+	 * @param row The row.
+	 * @return The characters, with a space for each empty cell.
+	 */
+	private static String getRow(Vt100TerminalModel model, int row) {
+		StringBuilder builder = new StringBuilder();
+		for (int column = 0; column < model.getColumns(); column++) {
+			TerminalCell cell = model.getCell(column, row);
+			builder.append(cell == null ? ' ' : cell.getCharacter());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Tests inserting, deleting and erasing characters.
+	 */
+	@Test
+	public void testInsertDeleteCharacters() {
+		Vt100TerminalModel model = new Vt100TerminalModel(8, 2);
+		model.print("abcdefgh\u009B1;3H\u009B2@");
+		assertEquals("ab  cdef", getRow(model, 0));
+		assertEquals(2, model.getCursorColumn());
+
+		model.print("\u009BP");
+		assertEquals("ab cdef ", getRow(model, 0));
+
+		model.print("\u009B2X");
+		assertEquals("ab  def ", getRow(model, 0));
+
+		model.print("\u009B1;7H\u009B99@");
+		assertEquals("ab  de  ", getRow(model, 0));
+
+		model.print("\u009B1;2H\u009B99P");
+		assertEquals("a       ", getRow(model, 0));
+	}
+
+	/**
+	 * Tests repeating the last printed character.
+	 */
+	@Test
+	public void testRepeat() {
+		Vt100TerminalModel model = new Vt100TerminalModel(4, 3);
+		model.print("\u009B3b");
+		assertNull(model.getCell(0, 0));
+
+		model.print("x\u009B5b");
+		assertEquals("xxxx", getRow(model, 0));
+		assertEquals("xx  ", getRow(model, 1));
+
+		model.print("\u009B1000000b");
+		assertEquals("xxxx", getRow(model, 0));
+		assertEquals("xxxx", getRow(model, 1));
+		assertEquals("xx  ", getRow(model, 2));
+	}
+
+	/**
+	 * Tests that the alternate screen is shown and hidden without changing
+	 * the primary screen, and that the cursor and SGR state are restored.
+	 */
+	@Test
+	public void testAlternateScreen() {
+		Vt100TerminalModel model = new Vt100TerminalModel(10, 4);
+		printRowNumbers(model);
+		model.print("\u009B2;3H\u009B31m");
+		TerminalSnapshot snapshot = model.snapshot();
+		Color red = Palette.DEFAULT.getNormalColor(1);
+
+		model.print("\u009B?1049h");
+		assertTrue(model.isAlternateScreen());
+		assertEquals("    ", getRowNumbers(model));
+		assertEquals(1, model.getCursorRow());
+
+		model.print("\u009B32m\u009B1;1Hx\u009B3;1Hy");
+		assertEquals("x y ", getRowNumbers(model));
+		assertEquals('0', snapshot.getCell(0, 0).getCharacter());
+
+		long generation = model.getGeneration();
+		model.print("\u009B?1049l");
+		assertFalse(model.isAlternateScreen());
+		assertEquals("0123", getRowNumbers(model));
+		assertEquals(1, model.getCursorRow());
+		assertEquals(2, model.getCursorColumn());
+		assertTrue(model.getRowGeneration(0) > generation);
+
+		model.print("z");
+		assertEquals(red, model.getCell(2, 1).getForegroundColor());
+
+		model.print("\u009B?47h");
+		assertEquals("x y ", getRowNumbers(model));
+		model.print("\u009B?1047l\u009B?47h");
+		assertEquals("    ", getRowNumbers(model));
+	}
+
+	/**
+	 * Tests that rows which have scrolled out of the hot window are read,
+	 * changed and shared with snapshots in the same way as other rows.
+	 */
+	@Test
+	public void testColdRows() {
+		Vt100TerminalModel model = new Vt100TerminalModel(40, 2, 12);
+		long empty = model.getMemoryUsage();
+		for (int row = 0; row < 20; row++) {
+			model.print("\u009B3" + (row % 8) + "m" + (char) ('a' + row) + "\u009B0m \u009B4" + (row % 8) + "mx\r\n");
+		}
+		// less than storing every row as an array of cells
+		assertTrue(model.getMemoryUsage() < empty + 12 * (16 + 40 * 8));
+
+		TerminalSnapshot snapshot = model.snapshot();
+		Palette palette = model.getPalette();
+		for (int row = 0; row < 12; row++) {
+			int line = row + 8;
+			TerminalCell cell = model.getCell(0, row);
+			assertEquals((char) ('a' + line), cell.getCharacter());
+			assertEquals(palette.getNormalColor(line % 8), cell.getForegroundColor());
+			assertEquals(' ', model.getCell(1, row).getCharacter());
+			assertEquals(palette.getNormalColor(line % 8), model.getCell(2, row).getBackgroundColor());
+			assertNull(model.getCell(3, row));
+			assertEquals(cell, snapshot.getCell(0, row));
+		}
+
+		model.print("\u009B1;2Hy\u009B1;1H\u009B@");
+		assertEquals(" iyx    ", getRow(model, 0).substring(0, 8));
+		assertEquals('i', snapshot.getCell(0, 0).getCharacter());
+		model.print("\u009B3;1H\u009B2P");
+		assertEquals("x       ", getRow(model, 2).substring(0, 8));
+	}
+
 	/**
 	 * Tests the printing of a simple message.
 	 */
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2009-2011 Graham Edgecombe.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.grahamedgecombe.jterminal.vt100;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A test for the {@link Vt500ControlSequenceParser} class.
+ * @author Graham Edgecombe
+ */
+public class TestVt500ControlSequenceParser extends AbstractControlSequenceParserTest implements AnsiControlSequenceListener {
+
+	/**
+	 * The current parser.
+	 */
+	private Vt500ControlSequenceParser parser;
+
+	/**
+	 * The list of objects returned through the
+	 * {@link AnsiControlSequenceListener} interface. Escape sequences are
+	 * recorded as their command character.
+	 */
+	private List<Object> objects = new ArrayList<Object>();
+
+	/**
+	 * Sets up the parser and object list.
+	 */
+	@Before
+	public void setUp() {
+		objects.clear();
+		parser = new Vt500ControlSequenceParser(this);
+	}
+
+	@Override
+	protected ControlSequenceParser createParser(AnsiControlSequenceListener listener) {
+		return new Vt500ControlSequenceParser(listener);
+	}
+
+	/**
+	 * Tests a control sequence embedded within some text.
+	 */
+	@Test
+	public void testTextAndSequence() {
+		parser.parse("hi\u001B[30;40mbye");
+
+		assertEquals(3, objects.size());
+		assertEquals("hi", objects.get(0));
+
+		AnsiControlSequence seq = (AnsiControlSequence) objects.get(1);
+		assertEquals('m', seq.getCommand());
+		assertEquals(2, seq.getParameterCount());
+		assertEquals(30, seq.getParameter(0, 0));
+		assertEquals(40, seq.getParameter(1, 0));
+
+		assertEquals("bye", objects.get(2));
+	}
+
+	/**
+	 * Tests that C0 controls are part of the text, and are executed without
+	 * interrupting a control sequence.
+	 */
+	@Test
+	public void testControlsWithinSequence() {
+		parser.parse("a\r\n\u009B1\n2H");
+
+		assertEquals(3, objects.size());
+		assertEquals("a\r\n", objects.get(0));
+		assertEquals("\n", objects.get(1));
+
+		AnsiControlSequence seq = (AnsiControlSequence) objects.get(2);
+		assertEquals('H', seq.getCommand());
+		assertEquals(12, seq.getParameter(0, 0));
+	}
+
+	/**
+	 * Tests escape sequences and C1 controls.
+	 */
+	@Test
+	public void testEscapeSequences() {
+		parser.parse("\u001B7\u001B(B\u0084x");
+
+		assertEquals(4, objects.size());
+		assertEquals('7', objects.get(0));
+		assertEquals('B', objects.get(1));
+		assertEquals('D', objects.get(2));
+		assertEquals("x", objects.get(3));
+	}
+
+	/**
+	 * Tests that control strings are consumed, whichever way they are
+	 * terminated.
+	 */
+	@Test
+	public void testControlStrings() {
+		parser.parse("a\u001B]0;title\u0007b\u001B]2;x\u001B\\c\u001BPq#0;1\u001B\\d\u009Dz\u009Ce");
+
+		assertEquals(Character.valueOf('\\'), objects.get(2));
+		assertEquals(Character.valueOf('\\'), objects.get(4));
+		objects.remove(4);
+		objects.remove(2);
+		assertEquals(5, objects.size());
+		assertEquals("a", objects.get(0));
+		assertEquals("b", objects.get(1));
+		assertEquals("c", objects.get(2));
+		assertEquals("d", objects.get(3));
+		assertEquals("e", objects.get(4));
+	}
+
+	/**
+	 * Tests that a sequence may be split across calls, and that CAN aborts a
+	 * sequence.
+	 */
+	@Test
+	public void testSplitAndCancelledSequences() {
+		parser.parse("\u001B");
+		parser.parse("[?25");
+		parser.parse("l");
+		parser.parse("\u001B[31\u0018m");
+
+		assertEquals(3, objects.size());
+		AnsiControlSequence seq = (AnsiControlSequence) objects.get(0);
+		assertEquals('l', seq.getCommand());
+		assertEquals('?', seq.getPrefix());
+		assertEquals(25, seq.getParameter(0, 0));
+
+		assertEquals("\u0018", objects.get(1));
+		assertEquals("m", objects.get(2));
+	}
+
+	/**
+	 * Tests that characters outside of US-ASCII are printed.
+	 */
+	@Test
+	public void testUnicode() {
+		parser.parse("\u00E9\u4E2D\u001B[\u00E9m");
+
+		assertEquals(2, objects.size());
+		assertEquals("\u00E9\u4E2D", objects.get(0));
+		assertEquals('m', ((AnsiControlSequence) objects.get(1)).getCommand());
+	}
+
+	/**
+	 * Tests that an escape sequence with too many intermediates is aborted,
+	 * and that the parser recovers at its final character, which may be a
+	 * digit in an escape sequence.
+	 */
+	@Test
+	public void testOversizedEscapeSequence() {
+		parser.setMaximumSequenceLength(8);
+
+		char[] intermediates = new char[100];
+		Arrays.fill(intermediates, '(');
+		parser.parse("\u001B");
+		parser.parse(intermediates, 0, intermediates.length);
+		parser.parse("0ok");
+
+		assertEquals(1, objects.size());
+		assertEquals("ok", objects.get(0));
+		assertEquals(1, parser.getAbortedSequences());
+	}
+
+	/**
+	 * Tests that control strings much longer than the maximum sequence length
+	 * are consumed without being stored, and that the parser recovers once
+	 * they are terminated.
+	 */
+	@Test
+	public void testOversizedControlStrings() {
+		parser.setMaximumSequenceLength(8);
+
+		char[] data = new char[100000];
+		Arrays.fill(data, 'x');
+		parser.parse("\u001B]0;");
+		parser.parse(data, 0, data.length);
+		parser.parse("\u0007a\u001BP1;2;3;4;5;6;7;8;9q");
+		parser.parse(data, 0, data.length);
+		parser.parse("\u001B\\b");
+
+		assertEquals(Arrays.<Object>asList("a", '\\', "b"), objects);
+		assertEquals(0, parser.getAbortedSequences());
+	}
+
+	@Override
+	public void parsedControlSequence(AnsiControlSequence seq) {
+		objects.add(seq.copy());
+	}
+
+	@Override
+	public void parsedEscapeSequence(AnsiControlSequence seq) {
+		objects.add(seq.getCommand());
+	}
+
+	@Override
+	public void parsedText(char[] buf, int off, int len) {
+		objects.add(new String(buf, off, len));
+	}
+
+}